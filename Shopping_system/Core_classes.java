@@ -44,30 +44,44 @@ public abstract class Account {
 
 // User class - represents regular buyers
 public class User extends Account {
-    private ShoppingCart cart;
-    private List<Order> orders;
+    private List<Order> orders;  // Cart lives in CartStore so idle carts can be evicted
     private List<Product> wishlist;
     private List<Product> recentlyViewed;
     
     public User(String name, String email, String phoneNumber) {
         super(name, email, phoneNumber);
-        this.cart = new ShoppingCart(this);
         this.orders = new ArrayList<>();
         this.wishlist = new ArrayList<>();
         this.recentlyViewed = new ArrayList<>();
     }
     
+    public ShoppingCart getCart() {
+        return CartStore.getInstance().getCart(this);
+    }
+    
     public Order placeOrder() {
-        // Create order from current cart items
-        if (cart.isEmpty()) {
+        // Create order from a frozen copy of the cart so concurrent edits neither leak in nor get wiped
+        ShoppingCart cart = getCart();
+        CartSnapshot snapshot = cart.snapshot();
+        if (snapshot.isEmpty()) {
             throw new IllegalStateException("Cannot place order with empty cart");
         }
-        Order order = new Order(this, cart.getItems());
+        StockReservation reservation = InventoryLedger.getInstance().reserve(snapshot.getItems());
+        if (reservation == null) {
+            throw new IllegalStateException("Insufficient stock for one or more items in cart");
+        }
+        Order order = new Order(OrderIdAllocator.next(), this, snapshot.getItems(),
+            snapshot.getTotalAmountMinor(), reservation);
         orders.add(order);
-        cart.clear();
+        cart.removeSnapshotted(snapshot);
         return order;
     }
     
+    // Batch placement records orders it created on the user's behalf
+    void recordOrder(Order order) {
+        orders.add(order);
+    }
+    
     public void cancelOrder(String orderId) {
         Order order = findOrderById(orderId);
         if (order != null && order.canBeCancelled()) {
@@ -187,62 +201,177 @@ public abstract class Card {
 }
 
 // Debit Card implementation
+// The daily limit applies to cumulative spend over a rolling 24 hours, not per transaction
 public class DebitCard extends Card {
-    private double dailyLimit;
+    private final long dailyLimitMinor;
     private String linkedAccountNumber;
+    private final RollingSpendWindow spendWindow;
     
     public DebitCard(String cardholderName, String cardNumber, 
                      String cvv, Date expiryDate, String linkedAccountNumber) {
         super(cardholderName, cardNumber, cvv, expiryDate);
         this.linkedAccountNumber = linkedAccountNumber;
-        this.dailyLimit = 50000.0;  // Default daily limit
+        this.dailyLimitMinor = Money.ofMajor(50000.0);  // Default daily limit
+        this.spendWindow = new RollingSpendWindow();
     }
     
     @Override
     public boolean processPayment(double amount) {
-        // Check if payment can be processed
         // In real implementation, this would connect to payment gateway
-        return amount <= dailyLimit && status == CardStatus.ACTIVE;
+        return authorize(Money.ofMajor(amount)) >= 0;
+    }
+    
+    // Returns the window hour the spend was booked in, or -1 when declined
+    public long authorize(long amountMinor) {
+        if (amountMinor <= 0 || status != CardStatus.ACTIVE) {
+            return -1;
+        }
+        return spendWindow.tryAdd(amountMinor, dailyLimitMinor, System.currentTimeMillis());
+    }
+    
+    // Refunds free up limit only while the original spend is still inside the window
+    public void reverse(long amountMinor, long bookedHour) {
+        spendWindow.remove(amountMinor, bookedHour);
     }
     
     @Override
     public double getTransactionLimit() {
-        return dailyLimit;
+        return Money.toMajor(dailyLimitMinor);
+    }
+    
+    public double getRemainingDailyLimit() {
+        long spent = spendWindow.sum(System.currentTimeMillis());
+        return Money.toMajor(Math.max(0L, dailyLimitMinor - spent));
+    }
+}
+
+// Rolling Spend Window - 24 hourly buckets in a fixed ring, constant memory per card
+// Each slot packs (epochHour << 40) | amountMinor so the hour stamp and the sum
+// change together in one CAS; stale slots are reset by whoever touches them next
+class RollingSpendWindow {
+    private static final int HOURS = 24;
+    private static final long MILLIS_PER_HOUR = 3_600_000L;
+    private static final int AMOUNT_BITS = 40;
+    private static final long AMOUNT_MASK = (1L << AMOUNT_BITS) - 1;
+    
+    private final AtomicLongArray buckets = new AtomicLongArray(HOURS);
+    
+    // Add first, then check - concurrent charges may briefly decline each other but never overdraw
+    long tryAdd(long amountMinor, long limitMinor, long nowMillis) {
+        if (amountMinor > limitMinor) {
+            return -1;
+        }
+        long hour = nowMillis / MILLIS_PER_HOUR;
+        int slot = (int) (hour % HOURS);
+        long current;
+        long next;
+        do {
+            current = buckets.get(slot);
+            long base = hourOf(current) == hour ? amountOf(current) : 0L;
+            if (base + amountMinor > AMOUNT_MASK) {
+                return -1;
+            }
+            next = pack(hour, base + amountMinor);
+        } while (!buckets.compareAndSet(slot, current, next));
+        
+        if (sum(nowMillis) > limitMinor) {
+            remove(amountMinor, hour);
+            return -1;
+        }
+        return hour;
+    }
+    
+    void remove(long amountMinor, long hour) {
+        int slot = (int) (hour % HOURS);
+        long current;
+        long next;
+        do {
+            current = buckets.get(slot);
+            if (hourOf(current) != hour) {
+                return;  // Bucket already aged out of the window
+            }
+            next = pack(hour, Math.max(0L, amountOf(current) - amountMinor));
+        } while (!buckets.compareAndSet(slot, current, next));
+    }
+    
+    long sum(long nowMillis) {
+        long hour = nowMillis / MILLIS_PER_HOUR;
+        long total = 0;
+        for (int i = 0; i < HOURS; i++) {
+            long packed = buckets.get(i);
+            long age = hour - hourOf(packed);
+            if (age >= 0 && age < HOURS) {
+                total += amountOf(packed);
+            }
+        }
+        return total;
+    }
+    
+    private static long pack(long hour, long amountMinor) {
+        return (hour << AMOUNT_BITS) | amountMinor;
+    }
+    
+    private static long hourOf(long packed) {
+        return packed >>> AMOUNT_BITS;
+    }
+    
+    private static long amountOf(long packed) {
+        return packed & AMOUNT_MASK;
     }
 }
 
 // Credit Card implementation
+// Available credit is a CAS-updated minor-unit counter, so concurrent charges
+// on a shared card can never overdraw it and no monitor lock is taken
 public class CreditCard extends Card {
-    private double creditLimit;
-    private double availableCredit;
-    private double minimumPayment;
+    private final long creditLimitMinor;
+    private final AtomicLong availableCreditMinor;
     
     public CreditCard(String cardholderName, String cardNumber, 
                       String cvv, Date expiryDate, double creditLimit) {
         super(cardholderName, cardNumber, cvv, expiryDate);
-        this.creditLimit = creditLimit;
-        this.availableCredit = creditLimit;
-        this.minimumPayment = 0.0;
+        this.creditLimitMinor = Money.ofMajor(creditLimit);
+        this.availableCreditMinor = new AtomicLong(creditLimitMinor);
     }
     
     @Override
     public boolean processPayment(double amount) {
-        if (amount <= availableCredit && status == CardStatus.ACTIVE) {
-            availableCredit -= amount;
-            minimumPayment = calculateMinimumPayment();
-            return true;
+        return authorize(Money.ofMajor(amount));
+    }
+    
+    public boolean authorize(long amountMinor) {
+        if (amountMinor <= 0 || status != CardStatus.ACTIVE) {
+            return false;
+        }
+        long available;
+        do {
+            available = availableCreditMinor.get();
+            if (amountMinor > available) {
+                return false;  // Declined without touching the counter
+            }
+        } while (!availableCreditMinor.compareAndSet(available, available - amountMinor));
+        return true;
+    }
+    
+    // Returns credit from a refund or reversal; never rises above the limit
+    public void release(long amountMinor) {
+        if (amountMinor <= 0) {
+            return;
         }
-        return false;
+        availableCreditMinor.accumulateAndGet(amountMinor,
+            (available, delta) -> Math.min(creditLimitMinor, available + delta));
     }
     
     @Override
     public double getTransactionLimit() {
-        return availableCredit;
+        return Money.toMajor(availableCreditMinor.get());
     }
     
-    private double calculateMinimumPayment() {
+    // Derived on read so it can never drift from the available credit
+    public double getMinimumPayment() {
         // Simplified calculation
-        return (creditLimit - availableCredit) * 0.05;  // 5% of used credit
+        long usedMinor = creditLimitMinor - availableCreditMinor.get();
+        return Money.toMajor(Money.percentOf(usedMinor, 500));  // 5% of used credit
     }
 }
 
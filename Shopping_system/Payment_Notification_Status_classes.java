@@ -1,26 +1,46 @@
 // Base Payment class
 public abstract class Payment {
     protected String paymentId;
-    protected double amount;
-    protected PaymentStatus status;  // PENDING, SUCCESS, FAILED, REFUNDED
+    protected long amountMinor;  // Minor currency units, compared exactly
+    protected volatile PaymentStatus status;  // PENDING, SUCCESS, FAILED, REFUNDED
     protected Date paymentDate;
     protected String transactionId;
     
     public Payment(double amount) {
         this.paymentId = generatePaymentId();
-        this.amount = amount;
+        this.amountMinor = Money.ofMajor(amount);
         this.status = PaymentStatus.PENDING;
         this.paymentDate = new Date();
     }
     
     // Template method pattern - common flow with specific implementation
-    public boolean processPayment(double orderAmount) {
-        if (orderAmount != amount) {
+    public boolean processPayment(long orderAmountMinor) {
+        if (orderAmountMinor != amountMinor) {
             return false;  // Amount mismatch
         }
         
-        boolean result = executePayment();
+        boolean result = PaymentGatewayExecutor.getInstance()
+            .execute(getGatewayName(), this::executePayment, this::reverseLateCharge);
         
+        return completePayment(result);
+    }
+    
+    // Gateway wait happens on a virtual thread, so no platform thread is parked on slow I/O
+    public CompletableFuture<Boolean> processPaymentAsync(long orderAmountMinor) {
+        if (orderAmountMinor != amountMinor) {
+            return CompletableFuture.completedFuture(false);  // Amount mismatch
+        }
+        return PaymentGatewayExecutor.getInstance()
+            .submit(getGatewayName(), this::executePayment, this::reverseLateCharge)
+            .thenApply(this::completePayment);
+    }
+    
+    // The charge went through after we had already reported FAILED - give it back
+    private void reverseLateCharge() {
+        executeRefund();
+    }
+    
+    private boolean completePayment(boolean result) {
         if (result) {
             status = PaymentStatus.SUCCESS;
             transactionId = generateTransactionId();
@@ -34,9 +54,13 @@ public abstract class Payment {
     // Abstract method to be implemented by subclasses
     protected abstract boolean executePayment();
     
+    // Gateway used for concurrency limits; null runs in-process with no gateway I/O
+    protected abstract String getGatewayName();
+    
     public boolean refund() {
         if (status == PaymentStatus.SUCCESS) {
-            boolean refundResult = executeRefund();
+            boolean refundResult = PaymentGatewayExecutor.getInstance()
+                .execute(getGatewayName(), this::executeRefund, () -> status = PaymentStatus.REFUNDED);
             if (refundResult) {
                 status = PaymentStatus.REFUNDED;
             }
@@ -48,6 +72,94 @@ public abstract class Payment {
     protected abstract boolean executeRefund();
 }
 
+// Payment Gateway Executor - Singleton running gateway calls on virtual threads
+// Each gateway gets a semaphore so a slow provider cannot absorb unbounded in-flight calls.
+// Calls that outlive the timeout are reported as failed and interrupted; if one still
+// succeeds afterwards, its onLateSuccess hook runs so the caller can undo the side effect
+public class PaymentGatewayExecutor {
+    private static volatile PaymentGatewayExecutor instance;
+    private static final int DEFAULT_GATEWAY_CONCURRENCY = 10_000;
+    private static final long PERMIT_TIMEOUT_MILLIS = 5_000L;
+    private static final long CALL_TIMEOUT_MILLIS = 30_000L;
+    
+    private final ExecutorService virtualThreads;
+    private final Map<String, Semaphore> gatewayPermits;
+    private volatile PaymentExecutionMode mode;
+    
+    private PaymentGatewayExecutor() {
+        this.virtualThreads = Executors.newVirtualThreadPerTaskExecutor();
+        this.gatewayPermits = new ConcurrentHashMap<>();
+        this.mode = PaymentExecutionMode.VIRTUAL_THREAD;
+    }
+    
+    public static PaymentGatewayExecutor getInstance() {
+        if (instance == null) {
+            synchronized (PaymentGatewayExecutor.class) {
+                if (instance == null) {
+                    instance = new PaymentGatewayExecutor();
+                }
+            }
+        }
+        return instance;
+    }
+    
+    public void setMode(PaymentExecutionMode mode) {
+        this.mode = mode;
+    }
+    
+    // Must be called before the gateway's first payment to take effect
+    public void setGatewayConcurrency(String gatewayName, int maxInFlight) {
+        gatewayPermits.put(gatewayName, new Semaphore(maxInFlight));
+    }
+    
+    public boolean execute(String gatewayName, BooleanSupplier call, Runnable onLateSuccess) {
+        if (gatewayName == null || mode == PaymentExecutionMode.INLINE) {
+            return call.getAsBoolean();
+        }
+        return submit(gatewayName, call, onLateSuccess).join();
+    }
+    
+    public CompletableFuture<Boolean> submit(String gatewayName, BooleanSupplier call, Runnable onLateSuccess) {
+        if (gatewayName == null || mode == PaymentExecutionMode.INLINE) {
+            return CompletableFuture.completedFuture(call.getAsBoolean());
+        }
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        Future<?> task = virtualThreads.submit(() -> {
+            boolean succeeded = callWithPermit(gatewayName, call);
+            // Losing the race to the timeout means the caller already saw false
+            if (!result.complete(succeeded) && succeeded) {
+                onLateSuccess.run();
+            }
+        });
+        CompletableFuture.delayedExecutor(CALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).execute(() -> {
+            if (result.complete(false)) {
+                task.cancel(true);  // Interrupt the gateway wait; a call that ignores it is reconciled above
+            }
+        });
+        return result;
+    }
+    
+    private boolean callWithPermit(String gatewayName, BooleanSupplier call) {
+        Semaphore permits = gatewayPermits.computeIfAbsent(gatewayName,
+            k -> new Semaphore(DEFAULT_GATEWAY_CONCURRENCY));
+        try {
+            if (!permits.tryAcquire(PERMIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                return false;  // Gateway saturated - fail fast rather than queue forever
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        try {
+            return call.getAsBoolean();
+        } catch (RuntimeException e) {
+            return false;
+        } finally {
+            permits.release();
+        }
+    }
+}
+
 // Cash Payment implementation
 public class CashPayment extends Payment {
     private boolean cashCollected;
@@ -71,6 +183,11 @@ public class CashPayment extends Payment {
         return false;  // Cannot refund cash payments automatically
     }
     
+    @Override
+    protected String getGatewayName() {
+        return null;  // No gateway call for cash on delivery
+    }
+    
     public void markCashCollected(String agentId) {
         this.cashCollected = true;
         this.collectionAgentId = agentId;
@@ -82,6 +199,7 @@ public class CashPayment extends Payment {
 public class DebitCardPayment extends Payment {
     private DebitCard debitCard;
     private String authorizationCode;
+    private long bookedHour = -1;  // Spend window bucket the charge landed in
     
     public DebitCardPayment(double amount, DebitCard debitCard) {
         super(amount);
@@ -91,7 +209,8 @@ public class DebitCardPayment extends Payment {
     @Override
     protected boolean executePayment() {
         // Use the debit card to process payment
-        boolean result = debitCard.processPayment(amount);
+        bookedHour = debitCard.authorize(amountMinor);
+        boolean result = bookedHour >= 0;
         if (result) {
             authorizationCode = generateAuthCode();
         }
@@ -102,8 +221,17 @@ public class DebitCardPayment extends Payment {
     protected boolean executeRefund() {
         // Process refund to debit card
         // In real implementation, this would connect to payment gateway
+        if (bookedHour >= 0) {
+            debitCard.reverse(amountMinor, bookedHour);
+            bookedHour = -1;
+        }
         return true;
     }
+    
+    @Override
+    protected String getGatewayName() {
+        return "DEBIT_CARD";
+    }
 }
 
 // Credit Card Payment implementation
@@ -111,6 +239,7 @@ public class CreditCardPayment extends Payment {
     private CreditCard creditCard;
     private String authorizationCode;
     private int emiMonths;  // For EMI payments
+    private long authorizedAmountMinor;  // Held on the card until refunded
     
     public CreditCardPayment(double amount, CreditCard creditCard) {
         super(amount);
@@ -124,9 +253,10 @@ public class CreditCardPayment extends Payment {
     
     @Override
     protected boolean executePayment() {
-        double paymentAmount = emiMonths > 0 ? calculateEmiAmount() : amount;
-        boolean result = creditCard.processPayment(paymentAmount);
+        long paymentAmountMinor = emiMonths > 0 ? calculateEmiAmountMinor() : amountMinor;
+        boolean result = creditCard.authorize(paymentAmountMinor);
         if (result) {
+            authorizedAmountMinor = paymentAmountMinor;
             authorizationCode = generateAuthCode();
         }
         return result;
@@ -134,15 +264,49 @@ public class CreditCardPayment extends Payment {
     
     @Override
     protected boolean executeRefund() {
-        // Process refund to credit card
+        // Process refund to credit card and give the held credit back
+        creditCard.release(authorizedAmountMinor);
+        authorizedAmountMinor = 0;
         return true;
     }
     
-    private double calculateEmiAmount() {
-        // Simplified EMI calculation
+    @Override
+    protected String getGatewayName() {
+        return "CREDIT_CARD";
+    }
+    
+    private long calculateEmiAmountMinor() {
+        // Simplified EMI calculation, rounded once to a whole minor unit
         double interestRate = 0.12 / 12;  // 12% annual rate
-        return (amount * interestRate * Math.pow(1 + interestRate, emiMonths)) / 
-               (Math.pow(1 + interestRate, emiMonths) - 1);
+        double growth = Math.pow(1 + interestRate, emiMonths);
+        return Math.round(amountMinor * interestRate * growth / (growth - 1));
+    }
+}
+
+// Net Banking Payment implementation
+public class NetBankingPayment extends Payment {
+    private Banking bankAccount;
+    
+    public NetBankingPayment(double amount, Banking bankAccount) {
+        super(amount);
+        this.bankAccount = bankAccount;
+    }
+    
+    @Override
+    protected boolean executePayment() {
+        // Bank redirect and confirmation happen inside initiatePayment
+        return bankAccount.initiatePayment(Money.toMajor(amountMinor));
+    }
+    
+    @Override
+    protected boolean executeRefund() {
+        // Refund is credited back to the originating account
+        return true;
+    }
+    
+    @Override
+    protected String getGatewayName() {
+        return "NET_BANKING";
     }
 }
 
@@ -152,7 +316,8 @@ public abstract class Notification {
     protected String description;
     protected Date timestamp;
     protected NotificationType type;  // ORDER_PLACED, SHIPMENT_UPDATE, DELIVERY, etc.
-    protected NotificationStatus status;  // PENDING, SENT, FAILED
+    protected volatile NotificationStatus status;  // PENDING, SENT, FAILED
+    protected int attempts;  // Send attempts so far, used by the dispatcher's retry backoff
     
     public Notification(String description, NotificationType type) {
         this.notificationId = generateNotificationId();
@@ -165,6 +330,7 @@ public abstract class Notification {
     // Template method for sending notifications
     public boolean send() {
         if (validate()) {
+            attempts++;
             boolean result = sendNotification();
             status = result ? NotificationStatus.SENT : NotificationStatus.FAILED;
             return result;
@@ -173,7 +339,15 @@ public abstract class Notification {
     }
     
     protected abstract boolean validate();
-    protected abstract boolean sendNotification();
+    public abstract NotificationChannel getChannel();
+    
+    // Delivery goes through the installed sink; false means it could not take the message
+    protected boolean sendNotification() {
+        return NotificationSinks.get().publish(this);
+    }
+    
+    // Writes the outbound message; called by sinks, possibly on a different thread
+    protected abstract void render(StringBuilder out);
 }
 
 // Email Notification implementation
@@ -194,21 +368,25 @@ public class EmailNotification extends Notification {
     @Override
     protected boolean validate() {
         // Validate email format
-        return emailId != null && emailId.matches("^[A-Za-z0-9+_.-]+@(.+)$");
+        return NotificationValidators.isValidEmail(emailId);
     }
     
     @Override
-    protected boolean sendNotification() {
-        // In real implementation, this would use email service
-        System.out.println("Sending email to: " + emailId);
-        System.out.println("Subject: " + subject);
-        System.out.println("Content: " + description);
-        return true;
+    protected void render(StringBuilder out) {
+        // In real implementation, the sink would hand this to the email service
+        out.append("Sending email to: ").append(emailId).append('\n');
+        out.append("Subject: ").append(subject).append('\n');
+        out.append("Content: ").append(description).append('\n');
     }
     
     public void addAttachment(String attachmentPath) {
         attachments.add(attachmentPath);
     }
+    
+    @Override
+    public NotificationChannel getChannel() {
+        return NotificationChannel.EMAIL;
+    }
 }
 
 // SMS Notification implementation
@@ -224,18 +402,579 @@ public class SMSNotification extends Notification {
     @Override
     protected boolean validate() {
         // Validate phone number format and message length
-        return phoneNumber != null && 
-               phoneNumber.matches("^[+]?[0-9]{10,15}$") &&
+        return NotificationValidators.isValidPhoneNumber(phoneNumber) &&
                description.length() <= characterLimit;
     }
     
     @Override
-    protected boolean sendNotification() {
-        // In real implementation, this would use SMS gateway
-        System.out.println("Sending SMS to: " + phoneNumber);
-        System.out.println("Message: " + description);
+    protected void render(StringBuilder out) {
+        // In real implementation, the sink would hand this to the SMS gateway
+        out.append("Sending SMS to: ").append(phoneNumber).append('\n');
+        out.append("Message: ").append(description).append('\n');
+    }
+    
+    @Override
+    public NotificationChannel getChannel() {
+        return NotificationChannel.SMS;
+    }
+}
+
+// Notification Sink - SPI for where rendered notifications end up
+public interface NotificationSink {
+    // Must not block; return false to report the message as FAILED so it is retried
+    boolean publish(Notification notification);
+}
+
+// Notification Sinks - holds the installed sink, defaulting to an async console sink
+final class NotificationSinks {
+    private static volatile NotificationSink sink;
+    
+    private NotificationSinks() {}
+    
+    static NotificationSink get() {
+        if (sink == null) {
+            synchronized (NotificationSinks.class) {
+                if (sink == null) {
+                    sink = new RingBufferNotificationSink(System.out, 1 << 16);
+                }
+            }
+        }
+        return sink;
+    }
+    
+    static void install(NotificationSink newSink) {
+        sink = newSink;
+    }
+    
+    // Local stand-in for a provider - appends to a file from the sink's writer thread
+    static NotificationSink toFile(String path) throws IOException {
+        return new RingBufferNotificationSink(new BufferedWriter(new FileWriter(path, true)), 1 << 16);
+    }
+}
+
+// Ring Buffer Notification Sink - lock-free multi-producer, single-consumer ring
+// Senders claim a slot with one CAS and return; a single writer thread renders whole
+// batches and writes them in one call, so senders never contend on the output's lock
+class RingBufferNotificationSink implements NotificationSink {
+    private static final Logger LOG = Logger.getLogger(RingBufferNotificationSink.class.getName());
+    private static final int MAX_BATCH = 256;
+    private static final long IDLE_PARK_NANOS = 100_000L;
+    
+    private final AtomicReferenceArray<Notification> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();  // Next slot to claim, shared by producers
+    private final AtomicLong head = new AtomicLong();  // Next slot to read, written only by the consumer
+    private final Appendable target;
+    
+    RingBufferNotificationSink(Appendable target, int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.target = target;
+        Thread writer = new Thread(this::drainLoop, "notification-sink-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    @Override
+    public boolean publish(Notification notification) {
+        long claimed;
+        do {
+            claimed = tail.get();
+            if (claimed - head.get() >= slots.length()) {
+                return false;  // Full - the writer is behind, let the dispatcher back off
+            }
+        } while (!tail.compareAndSet(claimed, claimed + 1));
+        slots.set((int) (claimed & mask), notification);
+        return true;
+    }
+    
+    private void drainLoop() {
+        StringBuilder buffer = new StringBuilder(8192);
+        while (!Thread.currentThread().isInterrupted()) {
+            long next = head.get();
+            int drained = 0;
+            while (drained < MAX_BATCH) {
+                int slot = (int) (next & mask);
+                Notification notification = slots.get(slot);
+                if (notification == null) {
+                    break;  // Empty, or claimed but not yet written by its producer
+                }
+                notification.render(buffer);
+                slots.set(slot, null);
+                next++;
+                drained++;
+            }
+            if (drained == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            head.lazySet(next);
+            write(buffer, drained);
+            buffer.setLength(0);
+        }
+    }
+    
+    private void write(CharSequence batch, int notificationCount) {
+        try {
+            target.append(batch);
+            if (target instanceof Flushable) {
+                ((Flushable) target).flush();
+            }
+        } catch (IOException e) {
+            // Nothing upstream can retry a batch once it left the ring, so at least make the loss visible
+            LOG.log(Level.SEVERE, "Lost a batch of " + notificationCount + " rendered notifications", e);
+        }
+    }
+}
+
+// In-Memory Notification Sink - synchronous stand-in that keeps rendered messages for inspection
+class InMemoryNotificationSink implements NotificationSink {
+    private final Queue<String> messages = new ConcurrentLinkedQueue<>();
+    
+    @Override
+    public boolean publish(Notification notification) {
+        StringBuilder out = new StringBuilder();
+        notification.render(out);
+        messages.add(out.toString());
+        return true;
+    }
+    
+    public List<String> getMessages() {
+        return new ArrayList<>(messages);
+    }
+    
+    public void clear() {
+        messages.clear();
+    }
+}
+
+// Notification Validators - single-pass scanners for recipient formats
+// Same rules as the original regexes, without compiling a Pattern or allocating per check
+final class NotificationValidators {
+    private NotificationValidators() {}
+    
+    // Equivalent to ^[A-Za-z0-9+_.-]+@(.+)$
+    static boolean isValidEmail(String email) {
+        if (email == null) {
+            return false;
+        }
+        int length = email.length();
+        int at = 0;
+        while (at < length && isLocalPartChar(email.charAt(at))) {
+            at++;
+        }
+        if (at == 0 || at >= length - 1 || email.charAt(at) != '@') {
+            return false;
+        }
+        for (int i = at + 1; i < length; i++) {
+            if (isLineTerminator(email.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // Equivalent to ^[+]?[0-9]{10,15}$
+    static boolean isValidPhoneNumber(String phoneNumber) {
+        if (phoneNumber == null) {
+            return false;
+        }
+        int start = !phoneNumber.isEmpty() && phoneNumber.charAt(0) == '+' ? 1 : 0;
+        int digits = phoneNumber.length() - start;
+        if (digits < 10 || digits > 15) {
+            return false;
+        }
+        for (int i = start; i < phoneNumber.length(); i++) {
+            char c = phoneNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
         return true;
     }
+    
+    // Splits a campaign batch in one pass; rejected notifications are collected, not thrown
+    static List<Notification> validateBatch(List<? extends Notification> batch, List<Notification> rejected) {
+        List<Notification> valid = new ArrayList<>(batch.size());
+        for (Notification notification : batch) {
+            if (notification.validate()) {
+                valid.add(notification);
+            } else {
+                rejected.add(notification);
+            }
+        }
+        return valid;
+    }
+    
+    private static boolean isLocalPartChar(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') ||
+               c == '+' || c == '_' || c == '.' || c == '-';
+    }
+    
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
+
+// Notification Dispatcher - Singleton that takes sending off the caller's thread
+// Each channel has a bounded queue drained in provider-sized batches by its own workers,
+// so a slow email provider cannot hold up SMS or the order flow that raised the notification
+public class NotificationDispatcher {
+    private static volatile NotificationDispatcher instance;
+    private static final Logger LOG = Logger.getLogger(NotificationDispatcher.class.getName());
+    private static final int MAX_ATTEMPTS = 4;
+    private static final int MAX_ENQUEUE_ATTEMPTS = 8;  // Roughly two minutes of backoff in total
+    private static final long BASE_BACKOFF_MILLIS = 500L;
+    
+    private final Map<NotificationChannel, ChannelQueue> channels;
+    private final ScheduledExecutorService retryScheduler;
+    
+    private NotificationDispatcher() {
+        this.channels = new EnumMap<>(NotificationChannel.class);
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "notification-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Batch sizes follow what the providers accept per API call
+        channels.put(NotificationChannel.EMAIL, new ChannelQueue(NotificationChannel.EMAIL, 50_000, 100, 4));
+        channels.put(NotificationChannel.SMS, new ChannelQueue(NotificationChannel.SMS, 50_000, 50, 2));
+    }
+    
+    public static NotificationDispatcher getInstance() {
+        if (instance == null) {
+            synchronized (NotificationDispatcher.class) {
+                if (instance == null) {
+                    instance = new NotificationDispatcher();
+                }
+            }
+        }
+        return instance;
+    }
+    
+    // Never blocks - false means the channel is saturated and the caller decides what to drop
+    public boolean dispatch(Notification notification) {
+        return channels.get(notification.getChannel()).offer(notification);
+    }
+    
+    // For transactional messages such as order confirmations - never blocks the caller, but a
+    // saturated channel is retried with backoff instead of shedding the message
+    public void dispatchGuaranteed(Notification notification) {
+        enqueueWithRetry(notification, 0);
+    }
+    
+    private void enqueueWithRetry(Notification notification, int attempt) {
+        if (dispatch(notification)) {
+            return;
+        }
+        if (attempt >= MAX_ENQUEUE_ATTEMPTS) {
+            notification.status = NotificationStatus.FAILED;
+            LOG.warning("Dropping " + notification.type + " notification " + notification.notificationId
+                + ": " + notification.getChannel() + " queue still full after " + attempt + " retries");
+            return;
+        }
+        retryScheduler.schedule(() -> enqueueWithRetry(notification, attempt + 1),
+            BASE_BACKOFF_MILLIS << attempt, TimeUnit.MILLISECONDS);
+    }
+    
+    // Campaign path - bad recipients are rejected up front so they never take queue space;
+    // returns how many were enqueued, anything not enqueued is added to rejected
+    public int dispatchAll(List<? extends Notification> batch, List<Notification> rejected) {
+        int enqueued = 0;
+        for (Notification notification : NotificationValidators.validateBatch(batch, rejected)) {
+            if (dispatch(notification)) {
+                enqueued++;
+            } else {
+                rejected.add(notification);
+            }
+        }
+        return enqueued;
+    }
+    
+    public int getPendingCount(NotificationChannel channel) {
+        return channels.get(channel).size();
+    }
+    
+    // Only provider failures are retried; notifications that fail validation stay PENDING and are dropped
+    private void onSent(Notification notification) {
+        if (notification.status != NotificationStatus.FAILED || notification.attempts >= MAX_ATTEMPTS) {
+            return;
+        }
+        long backoff = BASE_BACKOFF_MILLIS << (notification.attempts - 1);
+        retryScheduler.schedule(() -> enqueueWithRetry(notification, 0), backoff, TimeUnit.MILLISECONDS);
+    }
+    
+    // Bounded queue plus the worker threads that drain it
+    private class ChannelQueue {
+        private final BlockingQueue<Notification> queue;
+        private final int batchSize;
+        
+        ChannelQueue(NotificationChannel channel, int capacity, int batchSize, int workers) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.batchSize = batchSize;
+            for (int i = 0; i < workers; i++) {
+                Thread worker = new Thread(this::drainLoop, "notify-" + channel.name().toLowerCase() + "-" + i);
+                worker.setDaemon(true);
+                worker.start();
+            }
+        }
+        
+        boolean offer(Notification notification) {
+            return queue.offer(notification);
+        }
+        
+        int size() {
+            return queue.size();
+        }
+        
+        private void drainLoop() {
+            List<Notification> batch = new ArrayList<>(batchSize);
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    batch.add(queue.take());  // Park until there is work, then take whatever else is ready
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                queue.drainTo(batch, batchSize - 1);
+                for (Notification notification : batch) {
+                    try {
+                        notification.send();
+                    } catch (RuntimeException e) {
+                        notification.status = NotificationStatus.FAILED;
+                    }
+                    onSent(notification);
+                }
+                batch.clear();
+            }
+        }
+    }
+}
+
+// Notification Templates - Singleton holding precompiled subjects and bodies
+// Bodies are keyed by NotificationType and ShipmentStatus and parsed once at startup;
+// the status text is baked into each template, so rendering only appends the order id
+public class NotificationTemplates {
+    private static volatile NotificationTemplates instance;
+    private static final ThreadLocal<StringBuilder> RENDER_BUFFER =
+        ThreadLocal.withInitial(() -> new StringBuilder(256));
+    
+    private final Map<NotificationType, String> subjects;
+    private volatile Map<NotificationType, Map<ShipmentStatus, NotificationTemplate>> bodies;
+    
+    private NotificationTemplates() {
+        this.subjects = new EnumMap<>(NotificationType.class);
+        this.bodies = new EnumMap<>(NotificationType.class);
+        subjects.put(NotificationType.ORDER_PLACED, "Order Confirmation");
+        subjects.put(NotificationType.SHIPMENT_UPDATE, "Order Status Update");
+        register(NotificationType.ORDER_PLACED, ShipmentStatus.ORDER_PLACED, "Your order {orderId} has been placed");
+        for (ShipmentStatus status : ShipmentStatus.values()) {
+            register(NotificationType.SHIPMENT_UPDATE, status, "Your order {orderId} is {status}");
+        }
+    }
+    
+    public static NotificationTemplates getInstance() {
+        if (instance == null) {
+            synchronized (NotificationTemplates.class) {
+                if (instance == null) {
+                    instance = new NotificationTemplates();
+                }
+            }
+        }
+        return instance;
+    }
+    
+    // Replaces the template for one pair; compiled here so bad placeholders fail at registration
+    public synchronized void register(NotificationType type, ShipmentStatus status, String source) {
+        NotificationTemplate template = NotificationTemplate.compile(source, status.getDescription());
+        Map<ShipmentStatus, NotificationTemplate> byStatus = new EnumMap<>(ShipmentStatus.class);
+        Map<ShipmentStatus, NotificationTemplate> current = bodies.get(type);
+        if (current != null) {
+            byStatus.putAll(current);
+        }
+        byStatus.put(status, template);
+        // Copy-on-write so readers never see a half-built map
+        Map<NotificationType, Map<ShipmentStatus, NotificationTemplate>> updated = new EnumMap<>(bodies);
+        updated.put(type, byStatus);
+        bodies = updated;
+    }
+    
+    public String getSubject(NotificationType type) {
+        return subjects.get(type);
+    }
+    
+    public String renderBody(NotificationType type, ShipmentStatus status, String orderId) {
+        Map<ShipmentStatus, NotificationTemplate> byStatus = bodies.get(type);
+        NotificationTemplate template = byStatus == null ? null : byStatus.get(status);
+        if (template == null) {
+            throw new IllegalArgumentException("No template for " + type + " / " + status);
+        }
+        StringBuilder buffer = RENDER_BUFFER.get();
+        buffer.setLength(0);
+        template.renderTo(buffer, orderId);
+        return buffer.toString();
+    }
+}
+
+// Notification Template - literal segments with the order id slotted between them
+class NotificationTemplate {
+    private final String[] literals;  // One more literal than there are order id slots
+    
+    private NotificationTemplate(String[] literals) {
+        this.literals = literals;
+    }
+    
+    // Supports {orderId}, filled per render, and {status}, baked in at compile time
+    static NotificationTemplate compile(String source, String statusText) {
+        List<String> literals = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (c != '{') {
+                literal.append(c);
+                i++;
+                continue;
+            }
+            int close = source.indexOf('}', i);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder in template: " + source);
+            }
+            String name = source.substring(i + 1, close);
+            if (name.equals("status")) {
+                literal.append(statusText);
+            } else if (name.equals("orderId")) {
+                literals.add(literal.toString());
+                literal.setLength(0);
+            } else {
+                throw new IllegalArgumentException("Unknown placeholder {" + name + "} in template: " + source);
+            }
+            i = close + 1;
+        }
+        literals.add(literal.toString());
+        return new NotificationTemplate(literals.toArray(new String[0]));
+    }
+    
+    void renderTo(StringBuilder out, String orderId) {
+        out.append(literals[0]);
+        for (int i = 1; i < literals.length; i++) {
+            out.append(orderId).append(literals[i]);
+        }
+    }
+}
+
+// Notification Coalescer - Singleton that merges bursts of updates for the same order
+// Updates for one order and NotificationType wait out a short window and only the latest is sent;
+// a send whose content key matches the last one sent for that key is dropped as a duplicate.
+// Dedup entries expire after a day, so orders that never reach a final state do not pile up
+public class NotificationCoalescer {
+    private static volatile NotificationCoalescer instance;
+    private static final Logger LOG = Logger.getLogger(NotificationCoalescer.class.getName());
+    private static final long WINDOW_MILLIS = 10_000L;
+    private static final long DEDUP_TTL_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long DEDUP_SWEEP_MILLIS = 10 * 60 * 1000L;
+    
+    private final ConcurrentHashMap<String, PendingNotification> pending;
+    private final ConcurrentHashMap<String, SentContent> lastSentContent;
+    private final ScheduledExecutorService flushScheduler;
+    
+    private NotificationCoalescer() {
+        this.pending = new ConcurrentHashMap<>();
+        this.lastSentContent = new ConcurrentHashMap<>();
+        this.flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "notification-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flushScheduler.scheduleWithFixedDelay(this::expireSentContent,
+            DEDUP_SWEEP_MILLIS, DEDUP_SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    
+    public static NotificationCoalescer getInstance() {
+        if (instance == null) {
+            synchronized (NotificationCoalescer.class) {
+                if (instance == null) {
+                    instance = new NotificationCoalescer();
+                }
+            }
+        }
+        return instance;
+    }
+    
+    // Final updates skip the window so the last message is never delayed behind it
+    public void submit(String orderId, String contentKey, Notification notification, boolean isFinal) {
+        String key = orderId + ":" + notification.type;
+        PendingNotification window = pending.compute(key, (k, entry) -> {
+            if (entry == null) {
+                PendingNotification opened = new PendingNotification();
+                opened.flushTask = flushScheduler.schedule(() -> flush(k, opened, false),
+                    WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+                entry = opened;
+            }
+            entry.latest = notification;  // Keep only the newest state
+            entry.contentKey = contentKey;
+            return entry;
+        });
+        if (isFinal) {
+            window.flushTask.cancel(false);
+            flush(key, window, true);
+        }
+    }
+    
+    // Flushes only the given window, so a stale timer can never cut a later window short
+    private void flush(String key, PendingNotification window, boolean isFinal) {
+        if (!pending.remove(key, window)) {
+            return;  // Already flushed early by a final update
+        }
+        if (isFinal) {
+            SentContent previous = lastSentContent.remove(key);
+            if (previous == null || !window.contentKey.equals(previous.contentKey)) {
+                // Nothing supersedes a final update, so it must not be shed on a full queue
+                NotificationDispatcher.getInstance().dispatchGuaranteed(window.latest);
+            }
+            return;
+        }
+        SentContent sent = new SentContent(window.contentKey, System.currentTimeMillis());
+        SentContent previous = lastSentContent.put(key, sent);
+        if (previous != null && window.contentKey.equals(previous.contentKey)) {
+            return;
+        }
+        if (!NotificationDispatcher.getInstance().dispatch(window.latest)) {
+            // The next update supersedes this one - dedup against what was actually delivered
+            if (previous != null) {
+                lastSentContent.replace(key, sent, previous);
+            } else {
+                lastSentContent.remove(key, sent);
+            }
+            LOG.info("Dropped coalesced " + window.latest.type + " update for " + key + ": channel queue full");
+        }
+    }
+    
+    private void expireSentContent() {
+        long cutoff = System.currentTimeMillis() - DEDUP_TTL_MILLIS;
+        lastSentContent.values().removeIf(sent -> sent.sentAt < cutoff);
+    }
+    
+    // Latest notification waiting in an open window
+    private static class PendingNotification {
+        private Notification latest;
+        private String contentKey;
+        private ScheduledFuture<?> flushTask;
+    }
+    
+    // What was last sent for a key, kept only long enough to catch repeats
+    private static class SentContent {
+        private final String contentKey;
+        private final long sentAt;
+        
+        SentContent(String contentKey, long sentAt) {
+            this.contentKey = contentKey;
+            this.sentAt = sentAt;
+        }
+    }
 }
 
 // Status class for order tracking
@@ -290,17 +1029,20 @@ public class Status {
     
     private void sendStatusNotification() {
         // Create and send notification
-        String message = String.format("Your order %s is %s", 
-            order.getOrderId(), currentStatus.getDescription());
+        NotificationTemplates templates = NotificationTemplates.getInstance();
+        String message = templates.renderBody(NotificationType.SHIPMENT_UPDATE, currentStatus, order.getOrderId());
         
         Notification notification = new EmailNotification(
             order.getUser().getEmail(),
-            "Order Status Update",
+            templates.getSubject(NotificationType.SHIPMENT_UPDATE),
             message,
             NotificationType.SHIPMENT_UPDATE
         );
         
-        notification.send();
+        // Couriers often report several transitions seconds apart - send only the latest
+        boolean isFinal = currentStatus == ShipmentStatus.DELIVERED ||
+                          currentStatus == ShipmentStatus.DELIVERY_FAILED;
+        NotificationCoalescer.getInstance().submit(order.getOrderId(), currentStatus.name(), notification, isFinal);
     }
     
     private void calculateExpectedDelivery() {
@@ -326,20 +1068,87 @@ class StatusHistory {
     }
 }
 
+// Search Criteria - optional filters for ProductSearchService.searchWithFilters
+public class SearchCriteria {
+    private String keyword;
+    private double minPrice;  // 0 means no lower bound
+    private double maxPrice;  // 0 means no upper bound
+    private String category;
+    private String sellerId;
+    private boolean availableOnly;
+    
+    public SearchCriteria() {
+        this.availableOnly = false;
+    }
+    
+    public void setKeyword(String keyword) {
+        this.keyword = keyword;
+    }
+    
+    public void setPriceRange(double minPrice, double maxPrice) {
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+    }
+    
+    public void setCategory(String category) {
+        this.category = category;
+    }
+    
+    public void setSellerId(String sellerId) {
+        this.sellerId = sellerId;
+    }
+    
+    public void setAvailableOnly(boolean availableOnly) {
+        this.availableOnly = availableOnly;
+    }
+}
+
+// One page of ranked search results
+public class SearchResultPage {
+    public static final int UNCOUNTED = -1;  // Search stopped early, total not known
+    
+    private List<Product> products;
+    private int page;
+    private int pageSize;
+    private int totalMatches;
+    private boolean hasMore;
+    private FacetCounts facets;  // Only populated by faceted searches
+    
+    public SearchResultPage(List<Product> products, int page, int pageSize,
+                            int totalMatches, boolean hasMore) {
+        this.products = products;
+        this.page = page;
+        this.pageSize = pageSize;
+        this.totalMatches = totalMatches;
+        this.hasMore = hasMore;
+    }
+    
+    public void setFacets(FacetCounts facets) {
+        this.facets = facets;
+    }
+}
+
 // Search Interface
 public interface SearchInterface {
     List<Product> search(String query);
     List<Product> searchByCategory(String category);
+    List<Product> searchByCategoryTree(String fullCategoryPath);
     List<Product> searchByPriceRange(double minPrice, double maxPrice);
     List<Product> searchWithFilters(SearchCriteria criteria);
+    List<String> autocomplete(String prefix, int maxEdits, int limit);
+    SearchResultPage searchRanked(String query, ProductScorer scorer, int page, int pageSize);
+    SearchResultPage searchWithFiltersRanked(SearchCriteria criteria, ProductScorer scorer, int page, int pageSize);
+    SearchResultPage searchWithFacets(SearchCriteria criteria, ProductScorer scorer, int page, int pageSize);
 }
 
 // Search Implementation
 public class ProductSearchService implements SearchInterface {
     private ProductCatalog catalog;
+    private SearchQueryPlanner planner;
     
     public ProductSearchService() {
         this.catalog = ProductCatalog.getInstance();
+        this.planner = new SearchQueryPlanner(catalog);
     }
     
     @Override
@@ -352,35 +1161,355 @@ public class ProductSearchService implements SearchInterface {
         return catalog.getProductsByCategory(category);
     }
     
+    @Override
+    public List<Product> searchByCategoryTree(String fullCategoryPath) {
+        // e.g. "Electronics > Phones" - includes every descendant category
+        return catalog.getProductsInCategoryTree(fullCategoryPath);
+    }
+    
     @Override
     public List<Product> searchByPriceRange(double minPrice, double maxPrice) {
-        return catalog.getAllProducts().stream()
-            .filter(p -> p.getPrice() >= minPrice && p.getPrice() <= maxPrice)
-            .collect(Collectors.toList());
+        return catalog.getProductsByPriceRange(minPrice, maxPrice);
     }
     
     @Override
     public List<Product> searchWithFilters(SearchCriteria criteria) {
-        // Complex search with multiple filters
-        Stream<Product> stream = catalog.getAllProducts().stream();
+        // Planner picks the most selective index and applies the other filters as residuals
+        return planner.execute(criteria);
+    }
+    
+    @Override
+    public List<String> autocomplete(String prefix, int maxEdits, int limit) {
+        // Called per keystroke - maxEdits is capped at 2
+        return catalog.suggest(prefix, maxEdits, limit);
+    }
+    
+    @Override
+    public SearchResultPage searchRanked(String query, ProductScorer scorer, int page, int pageSize) {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.setKeyword(query);
+        return planner.executeTopK(criteria, scorer, page, pageSize, false);
+    }
+    
+    @Override
+    public SearchResultPage searchWithFiltersRanked(SearchCriteria criteria, ProductScorer scorer,
+                                                    int page, int pageSize) {
+        return planner.executeTopK(criteria, scorer, page, pageSize, false);
+    }
+    
+    @Override
+    public SearchResultPage searchWithFacets(SearchCriteria criteria, ProductScorer scorer,
+                                             int page, int pageSize) {
+        // Facets are aggregated in the same pass that ranks the page
+        return planner.executeTopK(criteria, scorer, page, pageSize, true);
+    }
+}
+
+// Cost-based planner for filtered searches
+// Estimates each access path's match count from catalog statistics and drives the cheapest one
+class SearchQueryPlanner {
+    private ProductCatalog catalog;
+    
+    public SearchQueryPlanner(ProductCatalog catalog) {
+        this.catalog = catalog;
+    }
+    
+    public List<Product> execute(SearchCriteria criteria) {
+        long readToken = catalog.beginBitmapRead();
+        try {
+            PlannedQuery query = plan(criteria);
+            List<Product> result = new ArrayList<>();
+            forEachCandidate(query, product -> {
+                if (matchesResidual(query, query.driver, product)) {
+                    result.add(product);
+                }
+            });
+            return result;
+        } finally {
+            catalog.endBitmapRead(readToken);
+        }
+    }
+    
+    // Ranks matches with a bounded heap so only the requested page is ever held
+    public SearchResultPage executeTopK(SearchCriteria criteria, ProductScorer scorer,
+                                        int page, int pageSize, boolean withFacets) {
+        if (page < 0 || pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid page request: page=" + page + ", size=" + pageSize);
+        }
+        if ((long) (page + 1) * pageSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Page request too deep: page=" + page + ", size=" + pageSize);
+        }
+        long readToken = catalog.beginBitmapRead();
+        try {
+            return rankTopK(criteria, scorer, page, pageSize, withFacets);
+        } finally {
+            catalog.endBitmapRead(readToken);
+        }
+    }
+    
+    private SearchResultPage rankTopK(SearchCriteria criteria, ProductScorer scorer,
+                                      int page, int pageSize, boolean withFacets) {
+        PlannedQuery query = plan(criteria);
+        int k = (page + 1) * pageSize;
+        TopKCollector collector = new TopKCollector(k);
         
-        if (criteria.getKeyword() != null) {
-            stream = stream.filter(p -> p.getName().contains(criteria.getKeyword()));
+        // Facets need every match, so they rule out stopping early
+        if (!withFacets && scorer instanceof StandardScorer && ((StandardScorer) scorer).isPriceOrdered()
+                && prefersOrderedWalk(query, k)) {
+            // Price index is already in score order - stop at the first match scoring below the
+            // K-th; products tied with the K-th are still offered so the id tie-break decides
+            boolean descending = scorer == StandardScorer.PRICE_HIGH_TO_LOW;
+            int[] seen = new int[1];
+            double[] boundaryScore = new double[1];
+            boolean[] hasMore = new boolean[1];
+            catalog.forEachByPrice(query.minPrice, query.maxPrice, descending, product -> {
+                if (matchesResidual(query, SearchDriver.PRICE_RANGE, product)) {
+                    double score = scorer.score(product, query.terms);
+                    if (seen[0] >= k && score != boundaryScore[0]) {
+                        hasMore[0] = true;
+                        return false;
+                    }
+                    if (++seen[0] == k) {
+                        boundaryScore[0] = score;
+                    }
+                    collector.offer(product, score);
+                }
+                return true;
+            });
+            return new SearchResultPage(collector.page(page, pageSize), page, pageSize,
+                SearchResultPage.UNCOUNTED, hasMore[0] || seen[0] > k);
         }
         
-        if (criteria.getMinPrice() > 0) {
-            stream = stream.filter(p -> p.getPrice() >= criteria.getMinPrice());
+        // Candidates stream straight into the heap - nothing beyond the K best is retained
+        int[] totalMatches = new int[1];
+        int[] facetMatches = new int[1];
+        int[][] matchedOrdinals = {new int[withFacets ? 64 : 0]};
+        forEachCandidate(query, product -> {
+            if (matchesResidual(query, query.driver, product)) {
+                if (withFacets) {
+                    int ordinal = catalog.getOrdinal(product);
+                    if (ordinal >= 0) {  // Skip products removed mid-query
+                        if (facetMatches[0] == matchedOrdinals[0].length) {
+                            matchedOrdinals[0] = Arrays.copyOf(matchedOrdinals[0], facetMatches[0] * 2);
+                        }
+                        matchedOrdinals[0][facetMatches[0]++] = ordinal;
+                    }
+                }
+                totalMatches[0]++;
+                collector.offer(product, scorer.score(product, query.terms));
+            }
+        });
+        SearchResultPage result = new SearchResultPage(collector.page(page, pageSize), page, pageSize,
+            totalMatches[0], totalMatches[0] > k);
+        if (withFacets) {
+            result.setFacets(catalog.getFacetCounts(ProductBitmap.of(matchedOrdinals[0], facetMatches[0])));
         }
+        return result;
+    }
+    
+    private PlannedQuery plan(SearchCriteria criteria) {
+        PlannedQuery query = new PlannedQuery();
+        query.terms = criteria.getKeyword() != null
+            ? ProductTextIndex.tokenize(criteria.getKeyword())
+            : Collections.emptySet();
+        query.hasPriceFilter = criteria.getMinPrice() > 0 || criteria.getMaxPrice() > 0;
+        query.minPrice = criteria.getMinPrice() > 0 ? criteria.getMinPrice() : 0.0;
+        query.maxPrice = criteria.getMaxPrice() > 0 ? criteria.getMaxPrice() : Double.MAX_VALUE;
+        query.availableOnly = criteria.isAvailableOnly();
         
-        if (criteria.getMaxPrice() > 0) {
-            stream = stream.filter(p -> p.getPrice() <= criteria.getMaxPrice());
+        // Category, seller, availability and price band collapse into one bitmap AND
+        query.filterBitmap = catalog.filterBitmap(
+            criteria.getCategory(),
+            criteria.getSellerId(),
+            query.availableOnly ? ProductStatus.AVAILABLE : null,
+            query.hasPriceFilter, query.minPrice, query.maxPrice);
+        
+        chooseDriver(query);
+        return query;
+    }
+    
+    private void chooseDriver(PlannedQuery query) {
+        query.driver = SearchDriver.FULL_SCAN;
+        query.estimatedCost = catalog.getProductCount();
+        
+        if (!query.terms.isEmpty()) {
+            long cost = catalog.estimateKeywordMatches(query.terms);
+            if (cost < query.estimatedCost) {
+                query.estimatedCost = cost;
+                query.driver = SearchDriver.KEYWORD;
+            }
         }
         
-        if (criteria.getCategory() != null) {
-            stream = stream.filter(p -> p.getCategory().getName().equals(criteria.getCategory()));
+        // Bitmap cardinality is exact, not an estimate
+        if (query.filterBitmap != null && query.filterBitmap.cardinality() < query.estimatedCost) {
+            query.estimatedCost = query.filterBitmap.cardinality();
+            query.driver = SearchDriver.BITMAP;
         }
         
-        return stream.collect(Collectors.toList());
+        if (query.hasPriceFilter) {
+            long cost = catalog.estimatePriceRangeMatches(query.minPrice, query.maxPrice);
+            if (cost < query.estimatedCost) {
+                query.estimatedCost = cost;
+                query.driver = SearchDriver.PRICE_RANGE;
+            }
+        }
+    }
+    
+    // An ordered walk visits about K / selectivity products; scoring every candidate visits estimatedCost
+    private boolean prefersOrderedWalk(PlannedQuery query, int k) {
+        if (query.estimatedCost == 0) {
+            return false;
+        }
+        double selectivity = (double) query.estimatedCost / Math.max(1, catalog.getProductCount());
+        return k / selectivity < query.estimatedCost;
+    }
+    
+    // Streams the driver's candidates without materializing them
+    private void forEachCandidate(PlannedQuery query, Consumer<Product> action) {
+        switch (query.driver) {
+            case KEYWORD:
+                catalog.forEachByTerms(query.terms, action);
+                break;
+            case BITMAP:
+                catalog.forEachInBitmap(query.filterBitmap, action);
+                break;
+            case PRICE_RANGE:
+                catalog.forEachByPrice(query.minPrice, query.maxPrice, false, product -> {
+                    action.accept(product);
+                    return true;
+                });
+                break;
+            default:
+                catalog.forEachProduct(action);
+        }
+    }
+    
+    // Residual filters - skip whichever predicate the driver already guarantees
+    private boolean matchesResidual(PlannedQuery query, SearchDriver driver, Product product) {
+        if (driver != SearchDriver.BITMAP && query.filterBitmap != null
+                && !query.filterBitmap.contains(catalog.getOrdinal(product))) {
+            return false;
+        }
+        if (driver != SearchDriver.KEYWORD && !query.terms.isEmpty()
+                && !catalog.matchesAllTerms(product, query.terms)) {
+            return false;
+        }
+        // Price bitmaps are bucketed, so only the range index guarantees exact bounds
+        if (driver != SearchDriver.PRICE_RANGE
+                && (product.getPrice() < query.minPrice || product.getPrice() > query.maxPrice)) {
+            return false;
+        }
+        return !query.availableOnly || product.isAvailable();
+    }
+    
+    // Normalized form of a SearchCriteria plus the chosen access path
+    private static class PlannedQuery {
+        private Set<String> terms;
+        private boolean hasPriceFilter;
+        private double minPrice;
+        private double maxPrice;
+        private boolean availableOnly;
+        private ProductBitmap filterBitmap;  // null when no bitmap-backed filter was requested
+        private SearchDriver driver;
+        private long estimatedCost;
+    }
+}
+
+// Bounded min-heap keeping the K highest-scoring products seen so far
+class TopKCollector {
+    private int k;
+    private PriorityQueue<ScoredProduct> heap;
+    
+    public TopKCollector(int k) {
+        this.k = k;
+        this.heap = new PriorityQueue<>(Math.max(1, Math.min(k, 1024)), ScoredProduct.ASCENDING);
+    }
+    
+    public void offer(Product product, double score) {
+        if (k <= 0) {
+            return;
+        }
+        if (heap.size() < k) {
+            heap.add(new ScoredProduct(product, score));
+        } else if (ScoredProduct.compare(score, product, heap.peek()) > 0) {
+            // Only allocate when the product actually displaces the current minimum
+            heap.poll();
+            heap.add(new ScoredProduct(product, score));
+        }
+    }
+    
+    // Highest score first, sliced to the requested page
+    public List<Product> page(int page, int pageSize) {
+        List<ScoredProduct> ranked = new ArrayList<>(heap);
+        ranked.sort(ScoredProduct.ASCENDING.reversed());
+        List<Product> result = new ArrayList<>(pageSize);
+        for (int i = page * pageSize; i < ranked.size() && result.size() < pageSize; i++) {
+            result.add(ranked.get(i).product);
+        }
+        return result;
+    }
+    
+    private static class ScoredProduct {
+        // Ties broken by productId so pages are stable across calls
+        private static final Comparator<ScoredProduct> ASCENDING =
+            (a, b) -> compare(a.score, a.product, b);
+        
+        // Same order as ASCENDING without allocating the candidate; on equal scores the lower id ranks higher
+        static int compare(double score, Product product, ScoredProduct other) {
+            int byScore = Double.compare(score, other.score);
+            return byScore != 0 ? byScore : other.product.getProductId().compareTo(product.getProductId());
+        }
+        
+        private final Product product;
+        private final double score;
+        
+        ScoredProduct(Product product, double score) {
+            this.product = product;
+            this.score = score;
+        }
+    }
+}
+
+// Pluggable ranking function - higher scores rank first
+public interface ProductScorer {
+    double score(Product product, Set<String> queryTerms);
+}
+
+// Built-in scorers for the search UI sort options
+enum StandardScorer implements ProductScorer {
+    RELEVANCE {
+        @Override
+        public double score(Product product, Set<String> queryTerms) {
+            // Name hits weigh double description hits; rating is damped by review volume
+            String name = product.getName() != null ? product.getName().toLowerCase() : "";
+            double termScore = 0;
+            for (String term : queryTerms) {
+                termScore += name.contains(term) ? 2.0 : 1.0;
+            }
+            return termScore + 0.1 * product.getRating() * Math.log1p(product.getReviewCount());
+        }
+    },
+    RATING {
+        @Override
+        public double score(Product product, Set<String> queryTerms) {
+            return product.getRating() * Math.log1p(product.getReviewCount());
+        }
+    },
+    PRICE_LOW_TO_HIGH {
+        @Override
+        public double score(Product product, Set<String> queryTerms) {
+            return -product.getPrice();
+        }
+    },
+    PRICE_HIGH_TO_LOW {
+        @Override
+        public double score(Product product, Set<String> queryTerms) {
+            return product.getPrice();
+        }
+    };
+    
+    public boolean isPriceOrdered() {
+        return this == PRICE_LOW_TO_HIGH || this == PRICE_HIGH_TO_LOW;
     }
 }
 
@@ -397,6 +1526,14 @@ enum PaymentStatus {
     PENDING, SUCCESS, FAILED, REFUNDED
 }
 
+enum PaymentExecutionMode {
+    INLINE, VIRTUAL_THREAD
+}
+
+enum ReservationState {
+    PENDING, COMMITTED, RELEASED
+}
+
 enum ShipmentStatus {
     ORDER_PLACED("Order has been placed"),
     PROCESSING("Order is being processed"),
@@ -418,6 +1555,18 @@ enum ShipmentStatus {
     }
 }
 
+enum SearchDriver {
+    KEYWORD, BITMAP, PRICE_RANGE, FULL_SCAN
+}
+
+enum NotificationStatus {
+    PENDING, SENT, FAILED
+}
+
+enum NotificationChannel {
+    EMAIL, SMS
+}
+
 enum NotificationType {
     ORDER_PLACED, PAYMENT_CONFIRMATION, SHIPMENT_UPDATE, DELIVERY, RETURN_INITIATED
 }
\ No newline at end of file
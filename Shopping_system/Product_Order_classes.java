@@ -1,17 +1,31 @@
 // Product Catalog - Singleton pattern for centralized product management
+// Reads go straight to concurrent maps and never block; admin writes are serialized
 public class ProductCatalog {
-    private static ProductCatalog instance;
+    private static volatile ProductCatalog instance;
     private String catalogId;
     private String name;
-    private List<Product> products;
-    private Map<String, List<Product>> categoryProductMap;
-    private Date lastUpdated;
+    private Map<String, Product> products;  // productId -> product, lock-striped
+    private Map<String, Set<Product>> categoryProductMap;
+    private Map<String, String> productCategoryMap;  // productId -> category name, for O(1) removal
+    private ProductTextIndex textIndex;  // Inverted index for keyword search
+    private ProductPriceIndex priceIndex;  // Price-ordered index for range queries
+    private ProductBitmapIndex bitmapIndex;  // Attribute bitmaps for multi-filter search
+    private CategoryTreeIndex categoryTreeIndex;  // Nested-set intervals for subtree browsing
+    private AutocompleteIndex autocompleteIndex;  // Typo-tolerant prefix suggestions
+    private final Object writeLock = new Object();  // Orders multi-index updates between writers
+    private volatile Date lastUpdated;
     
     private ProductCatalog() {
         this.catalogId = generateCatalogId();
         this.name = "Main Product Catalog";
-        this.products = new ArrayList<>();
-        this.categoryProductMap = new HashMap<>();
+        this.products = new ConcurrentHashMap<>();
+        this.categoryProductMap = new ConcurrentHashMap<>();
+        this.productCategoryMap = new ConcurrentHashMap<>();
+        this.textIndex = new ProductTextIndex();
+        this.priceIndex = new ProductPriceIndex();
+        this.bitmapIndex = new ProductBitmapIndex();
+        this.categoryTreeIndex = new CategoryTreeIndex();
+        this.autocompleteIndex = new AutocompleteIndex();
         this.lastUpdated = new Date();
     }
     
@@ -27,82 +41,1795 @@ public class ProductCatalog {
     }
     
     public void addProduct(Product product) {
-        products.add(product);
+        synchronized (writeLock) {
+            indexProduct(product);
+            lastUpdated = new Date();
+        }
+    }
+    
+    public void removeProduct(String productId) {
+        synchronized (writeLock) {
+            unindexProduct(productId);
+            lastUpdated = new Date();
+        }
+    }
+    
+    // Bulk variants for seller feeds - one lock acquisition for the whole batch
+    public void addProducts(Collection<Product> batch) {
+        synchronized (writeLock) {
+            for (Product product : batch) {
+                indexProduct(product);
+            }
+            lastUpdated = new Date();
+        }
+    }
+    
+    public void removeProducts(Collection<String> productIds) {
+        synchronized (writeLock) {
+            for (String productId : productIds) {
+                unindexProduct(productId);
+            }
+            lastUpdated = new Date();
+        }
+    }
+    
+    public Product getProductById(String productId) {
+        return products.get(productId);
+    }
+    
+    public void updateProductPrice(String productId, double newPrice) {
+        synchronized (writeLock) {
+            Product product = products.get(productId);
+            if (product == null) {
+                return;
+            }
+            // Re-key the price index around the change so range queries stay correct
+            double oldPrice = product.getPrice();
+            priceIndex.remove(product);
+            product.updatePrice(newPrice);
+            priceIndex.add(product);
+            bitmapIndex.movePrice(product, oldPrice);
+            lastUpdated = new Date();
+        }
+    }
+    
+    public void updateProductStock(String productId, int quantity) {
+        synchronized (writeLock) {
+            Product product = products.get(productId);
+            if (product == null) {
+                return;
+            }
+            ProductStatus oldStatus = product.getStatus();
+            product.updateStock(quantity);
+            bitmapIndex.moveStatus(product, oldStatus);
+            lastUpdated = new Date();
+        }
+    }
+    
+    private void indexProduct(Product product) {
+        Product previous = products.get(product.getProductId());
+        if (previous != null) {
+            unindexProduct(previous.getProductId());  // Re-adding replaces the old entry
+        }
+        products.put(product.getProductId(), product);
         // Add to category map
         String categoryName = product.getCategory().getName();
-        categoryProductMap.computeIfAbsent(categoryName, k -> new ArrayList<>()).add(product);
-        lastUpdated = new Date();
+        categoryProductMap.computeIfAbsent(categoryName, k -> ConcurrentHashMap.newKeySet()).add(product);
+        productCategoryMap.put(product.getProductId(), categoryName);
+        textIndex.index(product);
+        priceIndex.add(product);
+        bitmapIndex.add(product);
+        categoryTreeIndex.add(product);
+        autocompleteIndex.add(product.getName());
+        autocompleteIndex.add(product.getCategory().getName());
     }
     
-    public void removeProduct(String productId) {
-        products.removeIf(p -> p.getProductId().equals(productId));
-        // Also remove from category map
-        for (List<Product> categoryProducts : categoryProductMap.values()) {
-            categoryProducts.removeIf(p -> p.getProductId().equals(productId));
+    private void unindexProduct(String productId) {
+        Product product = products.remove(productId);
+        if (product == null) {
+            return;
+        }
+        // Reverse index points straight at the one category bucket holding the product
+        String categoryName = productCategoryMap.remove(productId);
+        if (categoryName != null) {
+            Set<Product> categoryProducts = categoryProductMap.get(categoryName);
+            if (categoryProducts != null) {
+                categoryProducts.remove(product);
+            }
+        }
+        textIndex.remove(product);
+        priceIndex.remove(product);
+        bitmapIndex.remove(product);
+        categoryTreeIndex.remove(product);
+        autocompleteIndex.remove(product.getName());
+        autocompleteIndex.remove(product.getCategory().getName());
+    }
+    
+    public List<Product> searchProducts(String query) {
+        // Served from the inverted index - cost depends on matches, not catalog size
+        return textIndex.search(query);
+    }
+    
+    public List<Product> getProductsByCategory(String categoryName) {
+        Set<Product> categoryProducts = categoryProductMap.get(categoryName);
+        return categoryProducts != null ? new ArrayList<>(categoryProducts) : new ArrayList<>();
+    }
+    
+    // All products under the category, including every descendant category
+    public List<Product> getProductsInCategoryTree(String fullCategoryPath) {
+        ensureCategoryTreeNumbered();
+        ProductCategory category = categoryTreeIndex.findByPath(fullCategoryPath);
+        return category != null ? categoryTreeIndex.subtree(category) : new ArrayList<>();
+    }
+    
+    public List<Product> getProductsInCategoryTree(ProductCategory category) {
+        ensureCategoryTreeNumbered();
+        return categoryTreeIndex.subtree(category);
+    }
+    
+    public void onCategoryTreeChanged() {
+        categoryTreeIndex.markDirty();
+    }
+    
+    private void ensureCategoryTreeNumbered() {
+        if (categoryTreeIndex.isDirty()) {
+            synchronized (writeLock) {
+                if (categoryTreeIndex.isDirty()) {
+                    categoryTreeIndex.rebuild(products.values());
+                }
+            }
+        }
+    }
+    
+    public List<Product> getProductsByPriceRange(double minPrice, double maxPrice) {
+        return priceIndex.range(minPrice, maxPrice);
+    }
+    
+    public void forEachByPrice(double minPrice, double maxPrice, boolean descending, Predicate<Product> visitor) {
+        priceIndex.forEachInOrder(minPrice, maxPrice, descending, visitor);
+    }
+    
+    public List<Product> getAllProducts() {
+        return new ArrayList<>(products.values());  // Weakly consistent snapshot, never blocks
+    }
+    
+    public void forEachProduct(Consumer<Product> action) {
+        products.values().forEach(action);  // Weakly consistent, no copy
+    }
+    
+    public List<String> suggest(String prefix, int maxEdits, int limit) {
+        return autocompleteIndex.suggest(prefix, maxEdits, limit);
+    }
+    
+    public void forEachByTerms(Set<String> terms, Consumer<Product> action) {
+        textIndex.forEachMatch(terms, action);
+    }
+    
+    public boolean matchesAllTerms(Product product, Set<String> terms) {
+        return textIndex.containsAll(product, terms);
+    }
+    
+    // Statistics used by SearchQueryPlanner to estimate filter selectivity
+    public int getProductCount() {
+        return products.size();
+    }
+    
+    public int estimateKeywordMatches(Set<String> terms) {
+        // An AND query can never match more products than its rarest term
+        int estimate = Integer.MAX_VALUE;
+        for (String term : terms) {
+            estimate = Math.min(estimate, textIndex.documentFrequency(term));
+        }
+        return estimate;
+    }
+    
+    public int estimatePriceRangeMatches(double minPrice, double maxPrice) {
+        return priceIndex.estimateRange(minPrice, maxPrice);
+    }
+    
+    public ProductBitmap filterBitmap(String category, String sellerId, ProductStatus status,
+                                      boolean hasPriceFilter, double minPrice, double maxPrice) {
+        return bitmapIndex.filter(category, sellerId, status, hasPriceFilter, minPrice, maxPrice);
+    }
+    
+    public void forEachInBitmap(ProductBitmap bitmap, Consumer<Product> action) {
+        bitmapIndex.forEach(bitmap, action);
+    }
+    
+    // Brackets any work that holds bitmaps or ordinals across calls, so they are not recycled under it
+    public long beginBitmapRead() {
+        return bitmapIndex.beginRead();
+    }
+    
+    public void endBitmapRead(long token) {
+        bitmapIndex.endRead(token);
+    }
+    
+    public int getOrdinal(Product product) {
+        return bitmapIndex.ordinalOf(product);
+    }
+    
+    public FacetCounts getFacetCounts(ProductBitmap matched) {
+        return bitmapIndex.facetCounts(matched);
+    }
+}
+
+// Inverted index mapping name/description tokens to the products containing them
+// Mutated only under the catalog write lock; searches read the concurrent postings directly
+class ProductTextIndex {
+    private Map<String, Set<Product>> postings;  // term -> products containing the term
+    
+    public ProductTextIndex() {
+        this.postings = new ConcurrentHashMap<>();
+    }
+    
+    public void index(Product product) {
+        for (String term : tokenize(product)) {
+            postings.computeIfAbsent(term, k -> ConcurrentHashMap.newKeySet()).add(product);
+        }
+    }
+    
+    public void remove(Product product) {
+        for (String term : tokenize(product)) {
+            Set<Product> posting = postings.get(term);
+            if (posting != null) {
+                posting.remove(product);
+                if (posting.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+    }
+    
+    public List<Product> search(String query) {
+        return search(tokenize(query));
+    }
+    
+    public List<Product> search(Set<String> terms) {
+        List<Product> result = new ArrayList<>();
+        forEachMatch(terms, result::add);
+        return result;
+    }
+    
+    // Streams the AND of all terms without building a result list
+    public void forEachMatch(Set<String> terms, Consumer<Product> action) {
+        if (terms.isEmpty()) {
+            return;
+        }
+        
+        // Gather posting lists, short-circuiting when any term has no matches
+        List<Set<Product>> lists = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            Set<Product> posting = postings.get(term);
+            if (posting == null) {
+                return;
+            }
+            lists.add(posting);
+        }
+        
+        // Intersect starting from the rarest term so work is bounded by the smallest list
+        lists.sort(Comparator.comparingInt(Set::size));
+        for (Product candidate : lists.get(0)) {
+            boolean matchesAll = true;
+            for (int i = 1; i < lists.size() && matchesAll; i++) {
+                matchesAll = lists.get(i).contains(candidate);
+            }
+            if (matchesAll) {
+                action.accept(candidate);
+            }
+        }
+    }
+    
+    public boolean containsAll(Product product, Set<String> terms) {
+        for (String term : terms) {
+            Set<Product> posting = postings.get(term);
+            if (posting == null || !posting.contains(product)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    public int documentFrequency(String term) {
+        Set<Product> posting = postings.get(term);
+        return posting != null ? posting.size() : 0;
+    }
+    
+    private Set<String> tokenize(Product product) {
+        Set<String> terms = tokenize(product.getName());
+        terms.addAll(tokenize(product.getDescription()));
+        return terms;
+    }
+    
+    // Splits on non-alphanumeric characters and lowercases each token
+    static Set<String> tokenize(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (token.length() > 0) {
+                terms.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        if (token.length() > 0) {
+            terms.add(token.toString());
+        }
+        return terms;
+    }
+}
+
+// Price-ordered secondary index - range queries seek in log time then scan contiguously
+class ProductPriceIndex {
+    private static final int HISTOGRAM_BUCKETS = 64;
+    private NavigableMap<Double, Set<Product>> productsByPrice;
+    private AtomicIntegerArray priceHistogram;  // Power-of-two price buckets for selectivity estimates
+    
+    public ProductPriceIndex() {
+        this.productsByPrice = new ConcurrentSkipListMap<>();
+        this.priceHistogram = new AtomicIntegerArray(HISTOGRAM_BUCKETS);
+    }
+    
+    public void add(Product product) {
+        productsByPrice.computeIfAbsent(product.getPrice(), k -> ConcurrentHashMap.newKeySet()).add(product);
+        priceHistogram.incrementAndGet(bucketOf(product.getPrice()));
+    }
+    
+    public void remove(Product product) {
+        Set<Product> samePrice = productsByPrice.get(product.getPrice());
+        if (samePrice != null && samePrice.remove(product)) {
+            priceHistogram.decrementAndGet(bucketOf(product.getPrice()));
+            if (samePrice.isEmpty()) {
+                productsByPrice.remove(product.getPrice());
+            }
+        }
+    }
+    
+    public List<Product> range(double minPrice, double maxPrice) {
+        List<Product> result = new ArrayList<>();
+        if (minPrice > maxPrice) {
+            return result;
+        }
+        for (Set<Product> samePrice : productsByPrice.subMap(minPrice, true, maxPrice, true).values()) {
+            result.addAll(samePrice);
+        }
+        return result;
+    }
+    
+    // Walks the range in price order until the visitor returns false
+    public void forEachInOrder(double minPrice, double maxPrice, boolean descending, Predicate<Product> visitor) {
+        if (minPrice > maxPrice) {
+            return;
+        }
+        NavigableMap<Double, Set<Product>> range = productsByPrice.subMap(minPrice, true, maxPrice, true);
+        for (Set<Product> samePrice : (descending ? range.descendingMap() : range).values()) {
+            for (Product product : samePrice) {
+                if (!visitor.test(product)) {
+                    return;
+                }
+            }
+        }
+    }
+    
+    // Estimates range size from the histogram, assuming prices are uniform within a bucket
+    public int estimateRange(double minPrice, double maxPrice) {
+        if (minPrice > maxPrice) {
+            return 0;
+        }
+        double estimate = 0;
+        for (int bucket = bucketOf(minPrice); bucket <= bucketOf(maxPrice); bucket++) {
+            double low = bucketLowerBound(bucket);
+            double high = bucketLowerBound(bucket + 1);
+            double overlap = (Math.min(high, maxPrice) - Math.max(low, minPrice)) / (high - low);
+            estimate += priceHistogram.get(bucket) * Math.max(0.0, Math.min(1.0, overlap));
+        }
+        return (int) Math.ceil(estimate);
+    }
+    
+    // Bucket 0 holds [0, 1); bucket b holds [2^(b-1), 2^b)
+    static int bucketOf(double price) {
+        if (price < 1.0) {
+            return 0;
+        }
+        return Math.min(HISTOGRAM_BUCKETS - 1, Math.getExponent(price) + 1);
+    }
+    
+    static double bucketLowerBound(int bucket) {
+        return bucket == 0 ? 0.0 : Math.scalb(1.0, bucket - 1);
+    }
+}
+
+// Roaring-style compressed bitmap over product ordinals
+// Immutable - writers publish modified copies, so readers combine bitmaps without locks
+final class ProductBitmap {
+    static final ProductBitmap EMPTY = new ProductBitmap(new char[0], new Object[0], 0);
+    private static final int ARRAY_LIMIT = 4096;  // Past this a 1024-word bitset is smaller
+    
+    private final char[] keys;  // High 16 bits of each container, ascending
+    private final Object[] containers;  // Sorted char[] of low bits, or long[1024] bitset
+    private final int cardinality;
+    
+    private ProductBitmap(char[] keys, Object[] containers, int cardinality) {
+        this.keys = keys;
+        this.containers = containers;
+        this.cardinality = cardinality;
+    }
+    
+    // Bulk build from unsorted ordinals - cheaper than repeated with() calls
+    public static ProductBitmap of(int[] ordinals, int count) {
+        int[] sorted = Arrays.copyOf(ordinals, count);
+        Arrays.sort(sorted);
+        char[] newKeys = new char[count];
+        Object[] newContainers = new Object[count];
+        int size = 0;
+        int total = 0;
+        int start = 0;
+        while (start < count) {
+            char key = high(sorted[start]);
+            int end = start;
+            while (end < count && high(sorted[end]) == key) {
+                end++;
+            }
+            char[] values = new char[end - start];
+            int distinct = 0;
+            for (int i = start; i < end; i++) {
+                if (distinct == 0 || values[distinct - 1] != low(sorted[i])) {
+                    values[distinct++] = low(sorted[i]);
+                }
+            }
+            newKeys[size] = key;
+            newContainers[size++] = distinct > ARRAY_LIMIT ? toBitset(Arrays.copyOf(values, distinct))
+                                                          : Arrays.copyOf(values, distinct);
+            total += distinct;
+            start = end;
+        }
+        return new ProductBitmap(Arrays.copyOf(newKeys, size), Arrays.copyOf(newContainers, size), total);
+    }
+    
+    public int cardinality() {
+        return cardinality;
+    }
+    
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+    
+    public boolean contains(int ordinal) {
+        int i = Arrays.binarySearch(keys, high(ordinal));
+        return i >= 0 && containerContains(containers[i], low(ordinal));
+    }
+    
+    public ProductBitmap with(int ordinal) {
+        int i = Arrays.binarySearch(keys, high(ordinal));
+        if (i >= 0) {
+            if (containerContains(containers[i], low(ordinal))) {
+                return this;
+            }
+            Object[] newContainers = containers.clone();
+            newContainers[i] = containerAdd(containers[i], low(ordinal));
+            return new ProductBitmap(keys, newContainers, cardinality + 1);
+        }
+        
+        int insertAt = -i - 1;
+        char[] newKeys = new char[keys.length + 1];
+        Object[] newContainers = new Object[containers.length + 1];
+        System.arraycopy(keys, 0, newKeys, 0, insertAt);
+        System.arraycopy(containers, 0, newContainers, 0, insertAt);
+        newKeys[insertAt] = high(ordinal);
+        newContainers[insertAt] = new char[] { low(ordinal) };
+        System.arraycopy(keys, insertAt, newKeys, insertAt + 1, keys.length - insertAt);
+        System.arraycopy(containers, insertAt, newContainers, insertAt + 1, containers.length - insertAt);
+        return new ProductBitmap(newKeys, newContainers, cardinality + 1);
+    }
+    
+    public ProductBitmap without(int ordinal) {
+        int i = Arrays.binarySearch(keys, high(ordinal));
+        if (i < 0 || !containerContains(containers[i], low(ordinal))) {
+            return this;
+        }
+        
+        Object remaining = containerRemove(containers[i], low(ordinal));
+        if (remaining != null) {
+            Object[] newContainers = containers.clone();
+            newContainers[i] = remaining;
+            return new ProductBitmap(keys, newContainers, cardinality - 1);
+        }
+        
+        // Container emptied - drop its key
+        char[] newKeys = new char[keys.length - 1];
+        Object[] newContainers = new Object[containers.length - 1];
+        System.arraycopy(keys, 0, newKeys, 0, i);
+        System.arraycopy(containers, 0, newContainers, 0, i);
+        System.arraycopy(keys, i + 1, newKeys, i, keys.length - i - 1);
+        System.arraycopy(containers, i + 1, newContainers, i, containers.length - i - 1);
+        return new ProductBitmap(newKeys, newContainers, cardinality - 1);
+    }
+    
+    public ProductBitmap and(ProductBitmap other) {
+        char[] newKeys = new char[Math.min(keys.length, other.keys.length)];
+        Object[] newContainers = new Object[newKeys.length];
+        int size = 0;
+        int total = 0;
+        for (int i = 0, j = 0; i < keys.length && j < other.keys.length; ) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Object result = containerAnd(containers[i], other.containers[j]);
+                if (result != null) {
+                    newKeys[size] = keys[i];
+                    newContainers[size++] = result;
+                    total += containerCardinality(result);
+                }
+                i++;
+                j++;
+            }
+        }
+        return new ProductBitmap(Arrays.copyOf(newKeys, size), Arrays.copyOf(newContainers, size), total);
+    }
+    
+    public ProductBitmap or(ProductBitmap other) {
+        char[] newKeys = new char[keys.length + other.keys.length];
+        Object[] newContainers = new Object[newKeys.length];
+        int size = 0;
+        int total = 0;
+        int i = 0;
+        int j = 0;
+        while (i < keys.length || j < other.keys.length) {
+            Object result;
+            if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+                newKeys[size] = keys[i];
+                result = containers[i++];
+            } else if (i == keys.length || keys[i] > other.keys[j]) {
+                newKeys[size] = other.keys[j];
+                result = other.containers[j++];
+            } else {
+                newKeys[size] = keys[i];
+                result = containerOr(containers[i++], other.containers[j++]);
+            }
+            newContainers[size++] = result;
+            total += containerCardinality(result);
+        }
+        return new ProductBitmap(Arrays.copyOf(newKeys, size), Arrays.copyOf(newContainers, size), total);
+    }
+    
+    // Intersection size without materializing the intersection
+    public int andCardinality(ProductBitmap other) {
+        int total = 0;
+        for (int i = 0, j = 0; i < keys.length && j < other.keys.length; ) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                total += containerAndCardinality(containers[i++], other.containers[j++]);
+            }
+        }
+        return total;
+    }
+    
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < keys.length; i++) {
+            int base = keys[i] << 16;
+            Object container = containers[i];
+            if (container instanceof char[]) {
+                for (char low : (char[]) container) {
+                    action.accept(base | low);
+                }
+            } else {
+                long[] bits = (long[]) container;
+                for (int word = 0; word < bits.length; word++) {
+                    long w = bits[word];
+                    while (w != 0) {
+                        action.accept(base | (word << 6) | Long.numberOfTrailingZeros(w));
+                        w &= w - 1;
+                    }
+                }
+            }
+        }
+    }
+    
+    private static char high(int ordinal) {
+        return (char) (ordinal >>> 16);
+    }
+    
+    private static char low(int ordinal) {
+        return (char) ordinal;
+    }
+    
+    private static boolean containerContains(Object container, char low) {
+        if (container instanceof char[]) {
+            return Arrays.binarySearch((char[]) container, low) >= 0;
+        }
+        return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+    }
+    
+    private static int containerCardinality(Object container) {
+        if (container instanceof char[]) {
+            return ((char[]) container).length;
+        }
+        int count = 0;
+        for (long word : (long[]) container) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+    
+    // Callers guarantee the value is absent
+    private static Object containerAdd(Object container, char low) {
+        if (container instanceof char[]) {
+            char[] values = (char[]) container;
+            if (values.length < ARRAY_LIMIT) {
+                int insertAt = -Arrays.binarySearch(values, low) - 1;
+                char[] grown = new char[values.length + 1];
+                System.arraycopy(values, 0, grown, 0, insertAt);
+                grown[insertAt] = low;
+                System.arraycopy(values, insertAt, grown, insertAt + 1, values.length - insertAt);
+                return grown;
+            }
+            long[] bits = toBitset(values);
+            bits[low >>> 6] |= 1L << low;
+            return bits;
+        }
+        long[] bits = ((long[]) container).clone();
+        bits[low >>> 6] |= 1L << low;
+        return bits;
+    }
+    
+    // Callers guarantee the value is present; returns null when the container empties
+    private static Object containerRemove(Object container, char low) {
+        if (container instanceof char[]) {
+            char[] values = (char[]) container;
+            if (values.length == 1) {
+                return null;
+            }
+            int removeAt = Arrays.binarySearch(values, low);
+            char[] shrunk = new char[values.length - 1];
+            System.arraycopy(values, 0, shrunk, 0, removeAt);
+            System.arraycopy(values, removeAt + 1, shrunk, removeAt, values.length - removeAt - 1);
+            return shrunk;
+        }
+        long[] bits = ((long[]) container).clone();
+        bits[low >>> 6] &= ~(1L << low);
+        return compact(bits);
+    }
+    
+    private static Object containerAnd(Object a, Object b) {
+        if (a instanceof char[] && b instanceof char[]) {
+            char[] x = (char[]) a;
+            char[] y = (char[]) b;
+            char[] result = new char[Math.min(x.length, y.length)];
+            int size = 0;
+            for (int i = 0, j = 0; i < x.length && j < y.length; ) {
+                if (x[i] < y[j]) {
+                    i++;
+                } else if (x[i] > y[j]) {
+                    j++;
+                } else {
+                    result[size++] = x[i++];
+                    j++;
+                }
+            }
+            return size == 0 ? null : Arrays.copyOf(result, size);
+        }
+        if (a instanceof char[] || b instanceof char[]) {
+            char[] values = (char[]) (a instanceof char[] ? a : b);
+            long[] bits = (long[]) (a instanceof char[] ? b : a);
+            char[] result = new char[values.length];
+            int size = 0;
+            for (char value : values) {
+                if ((bits[value >>> 6] & (1L << value)) != 0) {
+                    result[size++] = value;
+                }
+            }
+            return size == 0 ? null : Arrays.copyOf(result, size);
+        }
+        long[] x = (long[]) a;
+        long[] y = (long[]) b;
+        long[] bits = new long[x.length];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = x[i] & y[i];
+        }
+        return compact(bits);
+    }
+    
+    private static Object containerOr(Object a, Object b) {
+        if (a instanceof char[] && b instanceof char[]) {
+            char[] x = (char[]) a;
+            char[] y = (char[]) b;
+            char[] result = new char[x.length + y.length];
+            int size = 0;
+            int i = 0;
+            int j = 0;
+            while (i < x.length || j < y.length) {
+                if (j == y.length || (i < x.length && x[i] < y[j])) {
+                    result[size++] = x[i++];
+                } else if (i == x.length || x[i] > y[j]) {
+                    result[size++] = y[j++];
+                } else {
+                    result[size++] = x[i++];
+                    j++;
+                }
+            }
+            return size > ARRAY_LIMIT ? toBitset(Arrays.copyOf(result, size)) : Arrays.copyOf(result, size);
+        }
+        long[] bits = a instanceof char[] ? toBitset((char[]) a) : ((long[]) a).clone();
+        if (b instanceof char[]) {
+            for (char value : (char[]) b) {
+                bits[value >>> 6] |= 1L << value;
+            }
+        } else {
+            long[] other = (long[]) b;
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] |= other[i];
+            }
+        }
+        return bits;
+    }
+    
+    private static int containerAndCardinality(Object a, Object b) {
+        if (a instanceof long[] && b instanceof long[]) {
+            long[] x = (long[]) a;
+            long[] y = (long[]) b;
+            int count = 0;
+            for (int i = 0; i < x.length; i++) {
+                count += Long.bitCount(x[i] & y[i]);
+            }
+            return count;
+        }
+        Object result = containerAnd(a, b);
+        return result == null ? 0 : containerCardinality(result);
+    }
+    
+    private static long[] toBitset(char[] values) {
+        long[] bits = new long[1024];
+        for (char value : values) {
+            bits[value >>> 6] |= 1L << value;
+        }
+        return bits;
+    }
+    
+    // Converts a sparse bitset back to array form; null when empty
+    private static Object compact(long[] bits) {
+        int count = containerCardinality(bits);
+        if (count == 0) {
+            return null;
+        }
+        if (count > ARRAY_LIMIT) {
+            return bits;
+        }
+        char[] values = new char[count];
+        int size = 0;
+        for (int word = 0; word < bits.length; word++) {
+            long w = bits[word];
+            while (w != 0) {
+                values[size++] = (char) ((word << 6) | Long.numberOfTrailingZeros(w));
+                w &= w - 1;
+            }
+        }
+        return values;
+    }
+}
+
+// Per-attribute bitmaps over dense product ordinals
+// Freed ordinals are recycled only after a grace period: searches enter a read epoch, and an
+// ordinal retired in epoch E is reused once no reader from E or earlier remains, so a reader
+// holding an older bitmap never resolves to a different product
+class ProductBitmapIndex {
+    private Map<String, ProductBitmap> byCategory;
+    private Map<ProductStatus, ProductBitmap> byStatus;
+    private Map<Integer, ProductBitmap> byPriceBucket;  // Same power-of-two buckets as ProductPriceIndex
+    private Map<String, ProductBitmap> bySeller;
+    private Map<ProductCategory, ProductBitmap> byCategoryNode;  // Facet bitmaps, labelled by full path
+    private Map<String, ProductBitmap> bySize;
+    private Map<String, ProductBitmap> byColor;
+    private Map<String, Integer> ordinals;  // productId -> ordinal
+    private volatile Product[] productsByOrdinal;
+    private int nextOrdinal;
+    private final AtomicLong readEpoch = new AtomicLong();
+    private final LongAdder[] activeReaders = { new LongAdder(), new LongAdder() };  // By epoch parity
+    private final ArrayDeque<Integer> freeOrdinals = new ArrayDeque<>();
+    private List<Integer> retiredPreviousEpoch = new ArrayList<>();
+    private List<Integer> retiredCurrentEpoch = new ArrayList<>();
+    
+    public ProductBitmapIndex() {
+        this.byCategory = new ConcurrentHashMap<>();
+        this.byStatus = new ConcurrentHashMap<>();
+        this.byPriceBucket = new ConcurrentHashMap<>();
+        this.bySeller = new ConcurrentHashMap<>();
+        this.byCategoryNode = new ConcurrentHashMap<>();
+        this.bySize = new ConcurrentHashMap<>();
+        this.byColor = new ConcurrentHashMap<>();
+        this.ordinals = new ConcurrentHashMap<>();
+        this.productsByOrdinal = new Product[1024];
+        this.nextOrdinal = 0;
+    }
+    
+    // Returns a token for endRead; bitmaps and ordinals obtained in between stay valid
+    public long beginRead() {
+        while (true) {
+            long epoch = readEpoch.get();
+            activeReaders[(int) (epoch & 1)].increment();
+            if (readEpoch.get() == epoch) {
+                return epoch;
+            }
+            activeReaders[(int) (epoch & 1)].decrement();  // Epoch moved on - register in the new one
+        }
+    }
+    
+    public void endRead(long token) {
+        activeReaders[(int) (token & 1)].decrement();
+    }
+    
+    // Writers are serialized by the catalog write lock
+    public void add(Product product) {
+        tryAdvanceEpoch();
+        Integer recycled = freeOrdinals.poll();
+        int ordinal = recycled != null ? recycled : nextOrdinal++;
+        if (ordinal == productsByOrdinal.length) {
+            productsByOrdinal = Arrays.copyOf(productsByOrdinal, ordinal * 2);
+        }
+        productsByOrdinal[ordinal] = product;
+        ordinals.put(product.getProductId(), ordinal);
+        
+        set(byCategory, product.getCategory().getName(), ordinal);
+        set(byStatus, product.getStatus(), ordinal);
+        set(byPriceBucket, ProductPriceIndex.bucketOf(product.getPrice()), ordinal);
+        set(bySeller, product.getSellerId(), ordinal);
+        set(byCategoryNode, product.getCategory(), ordinal);
+        for (String size : product.getAvailableSizes()) {
+            set(bySize, size, ordinal);
+        }
+        for (String color : product.getAvailableColors()) {
+            set(byColor, color, ordinal);
+        }
+    }
+    
+    public void remove(Product product) {
+        Integer ordinal = ordinals.remove(product.getProductId());
+        if (ordinal == null) {
+            return;
+        }
+        clear(byCategory, product.getCategory().getName(), ordinal);
+        clear(byStatus, product.getStatus(), ordinal);
+        clear(byPriceBucket, ProductPriceIndex.bucketOf(product.getPrice()), ordinal);
+        clear(bySeller, product.getSellerId(), ordinal);
+        clear(byCategoryNode, product.getCategory(), ordinal);
+        for (String size : product.getAvailableSizes()) {
+            clear(bySize, size, ordinal);
+        }
+        for (String color : product.getAvailableColors()) {
+            clear(byColor, color, ordinal);
+        }
+        productsByOrdinal[ordinal] = null;
+        retiredCurrentEpoch.add(ordinal);
+        tryAdvanceEpoch();
+    }
+    
+    // Moving from E to E + 1 needs every reader of E - 1 gone; ordinals retired in E - 1 were
+    // cleared before any reader of E started, so nothing live can still hold them
+    private void tryAdvanceEpoch() {
+        if (retiredPreviousEpoch.isEmpty() && retiredCurrentEpoch.isEmpty()) {
+            return;
+        }
+        long epoch = readEpoch.get();
+        if (activeReaders[(int) ((epoch + 1) & 1)].sum() != 0) {
+            return;  // Readers from the previous epoch are still running
+        }
+        readEpoch.set(epoch + 1);
+        freeOrdinals.addAll(retiredPreviousEpoch);
+        retiredPreviousEpoch = retiredCurrentEpoch;
+        retiredCurrentEpoch = new ArrayList<>();
+    }
+    
+    public void moveStatus(Product product, ProductStatus oldStatus) {
+        Integer ordinal = ordinals.get(product.getProductId());
+        if (ordinal != null && oldStatus != product.getStatus()) {
+            clear(byStatus, oldStatus, ordinal);
+            set(byStatus, product.getStatus(), ordinal);
+        }
+    }
+    
+    public void movePrice(Product product, double oldPrice) {
+        Integer ordinal = ordinals.get(product.getProductId());
+        int oldBucket = ProductPriceIndex.bucketOf(oldPrice);
+        int newBucket = ProductPriceIndex.bucketOf(product.getPrice());
+        if (ordinal != null && oldBucket != newBucket) {
+            clear(byPriceBucket, oldBucket, ordinal);
+            set(byPriceBucket, newBucket, ordinal);
+        }
+    }
+    
+    public int ordinalOf(Product product) {
+        Integer ordinal = ordinals.get(product.getProductId());
+        return ordinal != null ? ordinal : -1;
+    }
+    
+    // AND of every requested attribute; null means no bitmap-backed filter was requested
+    public ProductBitmap filter(String category, String sellerId, ProductStatus status,
+                                boolean hasPriceFilter, double minPrice, double maxPrice) {
+        ProductBitmap result = null;
+        if (category != null) {
+            result = intersect(result, byCategory.getOrDefault(category, ProductBitmap.EMPTY));
+        }
+        if (sellerId != null) {
+            result = intersect(result, bySeller.getOrDefault(sellerId, ProductBitmap.EMPTY));
+        }
+        if (status != null) {
+            result = intersect(result, byStatus.getOrDefault(status, ProductBitmap.EMPTY));
+        }
+        if (hasPriceFilter && minPrice <= maxPrice) {
+            // Bucket edges are coarse - callers still apply the exact price check
+            ProductBitmap priceBand = ProductBitmap.EMPTY;
+            for (int bucket = ProductPriceIndex.bucketOf(minPrice); bucket <= ProductPriceIndex.bucketOf(maxPrice); bucket++) {
+                priceBand = priceBand.or(byPriceBucket.getOrDefault(bucket, ProductBitmap.EMPTY));
+            }
+            result = intersect(result, priceBand);
+        } else if (hasPriceFilter) {
+            result = ProductBitmap.EMPTY;
+        }
+        return result;
+    }
+    
+    // Single resolution step once all bitmap operations are done
+    public void forEach(ProductBitmap bitmap, Consumer<Product> action) {
+        Product[] table = productsByOrdinal;
+        bitmap.forEach(ordinal -> {
+            Product product = ordinal < table.length ? table[ordinal] : null;
+            if (product != null) {
+                action.accept(product);
+            }
+        });
+    }
+    
+    // Facet counts come from intersecting precomputed bitmaps, never from walking products
+    public FacetCounts facetCounts(ProductBitmap matched) {
+        // Unfiltered result - the precomputed cardinalities are already the answer
+        boolean matchesAll = matched.cardinality() == ordinals.size();
+        FacetCounts facets = new FacetCounts();
+        countInto(byCategoryNode, ProductCategory::getFullCategoryPath, matched, matchesAll, facets.getCategoryCounts());
+        countInto(bySize, Function.identity(), matched, matchesAll, facets.getSizeCounts());
+        countInto(byColor, Function.identity(), matched, matchesAll, facets.getColorCounts());
+        for (Map.Entry<Integer, ProductBitmap> entry : new TreeMap<>(byPriceBucket).entrySet()) {
+            int count = matchesAll ? entry.getValue().cardinality() : matched.andCardinality(entry.getValue());
+            if (count > 0) {
+                facets.getPriceBucketCounts().put(FacetCounts.priceBucketLabel(entry.getKey()), count);
+            }
+        }
+        return facets;
+    }
+    
+    private <K> void countInto(Map<K, ProductBitmap> bitmaps, Function<K, String> label, ProductBitmap matched,
+                               boolean matchesAll, Map<String, Integer> counts) {
+        for (Map.Entry<K, ProductBitmap> entry : bitmaps.entrySet()) {
+            int count = matchesAll ? entry.getValue().cardinality() : matched.andCardinality(entry.getValue());
+            if (count > 0) {
+                counts.merge(label.apply(entry.getKey()), count, Integer::sum);
+            }
+        }
+    }
+    
+    private ProductBitmap intersect(ProductBitmap current, ProductBitmap next) {
+        return current == null ? next : current.and(next);
+    }
+    
+    private <K> void set(Map<K, ProductBitmap> bitmaps, K key, int ordinal) {
+        bitmaps.compute(key, (k, bitmap) -> (bitmap != null ? bitmap : ProductBitmap.EMPTY).with(ordinal));
+    }
+    
+    private <K> void clear(Map<K, ProductBitmap> bitmaps, K key, int ordinal) {
+        bitmaps.computeIfPresent(key, (k, bitmap) -> {
+            ProductBitmap remaining = bitmap.without(ordinal);
+            return remaining.isEmpty() ? null : remaining;
+        });
+    }
+}
+
+// Nested-set (Euler tour) encoding of the category forest
+// Each category owns the pre-order interval [treeLeft, treeRight] covering its whole subtree,
+// so "everything under X" is one range lookup on products keyed by their category's treeLeft.
+// Intervals, positions and paths are published together as one immutable numbering
+class CategoryTreeIndex {
+    private volatile TreeNumbering numbering;  // Swapped whole on rebuild
+    private volatile boolean dirty;
+    
+    public CategoryTreeIndex() {
+        this.numbering = new TreeNumbering(new IdentityHashMap<>(), new ConcurrentSkipListMap<>(), new HashMap<>());
+        this.dirty = false;
+    }
+    
+    // Writers are serialized by the catalog write lock
+    public void add(Product product) {
+        TreeNumbering current = numbering;
+        int[] interval = current.intervals.get(product.getCategory());
+        if (interval == null) {
+            dirty = true;  // Unseen category - picked up by the next renumbering
+            return;
+        }
+        current.productsByPosition.computeIfAbsent(interval[0], k -> ConcurrentHashMap.newKeySet()).add(product);
+    }
+    
+    public void remove(Product product) {
+        TreeNumbering current = numbering;
+        int[] interval = current.intervals.get(product.getCategory());
+        if (interval == null) {
+            return;
+        }
+        Set<Product> atPosition = current.productsByPosition.get(interval[0]);
+        if (atPosition != null) {
+            atPosition.remove(product);
+        }
+    }
+    
+    public void markDirty() {
+        dirty = true;
+    }
+    
+    public boolean isDirty() {
+        return dirty;
+    }
+    
+    public ProductCategory findByPath(String fullCategoryPath) {
+        return numbering.categoriesByPath.get(fullCategoryPath);
+    }
+    
+    public List<Product> subtree(ProductCategory category) {
+        List<Product> result = new ArrayList<>();
+        TreeNumbering current = numbering;  // One read, so interval and positions always match
+        int[] interval = current.intervals.get(category);
+        if (interval == null) {
+            return result;
+        }
+        for (Set<Product> atPosition : current.productsByPosition
+                .subMap(interval[0], true, interval[1], true).values()) {
+            result.addAll(atPosition);
+        }
+        return result;
+    }
+    
+    // Renumbers every tree that currently holds products and re-keys them - only runs after
+    // the tree shape changes. Roots are recomputed each time, so a re-parented former root
+    // is numbered only inside its new parent
+    public void rebuild(Collection<Product> products) {
+        dirty = false;
+        Set<ProductCategory> roots = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Product product : products) {
+            roots.add(rootOf(product.getCategory()));
+        }
+        Map<ProductCategory, int[]> intervals = new IdentityHashMap<>();
+        Map<String, ProductCategory> paths = new HashMap<>();
+        int next = 0;
+        for (ProductCategory root : roots) {
+            next = number(root, next, intervals, paths);
+        }
+        
+        NavigableMap<Integer, Set<Product>> positions = new ConcurrentSkipListMap<>();
+        for (Product product : products) {
+            positions.computeIfAbsent(intervals.get(product.getCategory())[0],
+                k -> ConcurrentHashMap.newKeySet()).add(product);
+        }
+        numbering = new TreeNumbering(intervals, positions, paths);
+    }
+    
+    private int number(ProductCategory category, int next,
+                       Map<ProductCategory, int[]> intervals, Map<String, ProductCategory> paths) {
+        int left = next++;
+        for (ProductCategory subCategory : category.getSubCategories()) {
+            next = number(subCategory, next, intervals, paths);
+        }
+        intervals.put(category, new int[] { left, next - 1 });
+        paths.put(category.getFullCategoryPath(), category);
+        return next;
+    }
+    
+    private ProductCategory rootOf(ProductCategory category) {
+        while (category.getParentCategory() != null) {
+            category = category.getParentCategory();
+        }
+        return category;
+    }
+    
+    // One consistent numbering; only the per-position product sets change after publication
+    private static class TreeNumbering {
+        private final Map<ProductCategory, int[]> intervals;  // Category -> {treeLeft, treeRight}
+        private final NavigableMap<Integer, Set<Product>> productsByPosition;
+        private final Map<String, ProductCategory> categoriesByPath;
+        
+        TreeNumbering(Map<ProductCategory, int[]> intervals,
+                      NavigableMap<Integer, Set<Product>> productsByPosition,
+                      Map<String, ProductCategory> categoriesByPath) {
+            this.intervals = intervals;
+            this.productsByPosition = productsByPosition;
+            this.categoriesByPath = categoriesByPath;
+        }
+    }
+}
+
+// Trie over product and category names for as-you-type suggestions
+// Lookups walk the trie with a Levenshtein row per node, pruning any branch that can no longer
+// come within maxEdits of the typed prefix, so cost depends on the prefix, not the catalog size
+class AutocompleteIndex {
+    private static final int MAX_EDITS = 2;
+    private static final int MAX_WORD_ENTRIES = 8;  // Word starts indexed per phrase
+    
+    private final TrieNode root;
+    
+    public AutocompleteIndex() {
+        this.root = new TrieNode();
+    }
+    
+    // Writers are serialized by the catalog write lock
+    public void add(String phrase) {
+        if (phrase == null) {
+            return;
+        }
+        for (String key : entryKeys(phrase)) {
+            TrieNode node = root;
+            for (int i = 0; i < key.length(); i++) {
+                node = node.children.computeIfAbsent(key.charAt(i), c -> new TrieNode());
+            }
+            if (node.refCount == 0) {
+                node.display = phrase;
+            }
+            node.refCount++;
+        }
+    }
+    
+    // Dead leaf chains are pruned, so every remaining leaf carries a live phrase and the
+    // trie stays proportional to the current catalog rather than everything ever indexed
+    public void remove(String phrase) {
+        if (phrase == null) {
+            return;
+        }
+        for (String key : entryKeys(phrase)) {
+            TrieNode[] path = new TrieNode[key.length() + 1];
+            path[0] = root;
+            int depth = 0;
+            while (depth < key.length() && path[depth] != null) {
+                path[depth + 1] = path[depth].children.get(key.charAt(depth));
+                depth++;
+            }
+            TrieNode node = path[key.length()];
+            if (node == null || node.refCount == 0) {
+                continue;
+            }
+            node.refCount--;
+            if (node.refCount > 0) {
+                continue;
+            }
+            node.display = null;
+            for (int i = key.length(); i > 0; i--) {
+                TrieNode dead = path[i];
+                if (dead.refCount > 0 || !dead.children.isEmpty()) {
+                    break;
+                }
+                path[i - 1].children.remove(key.charAt(i - 1), dead);
+            }
+        }
+    }
+    
+    // Answers tier by tier: every completion of the exact prefix first, then one edit away, and
+    // so on - a later tier is only searched while the earlier ones left slots unfilled
+    public List<String> suggest(String prefix, int maxEdits, int limit) {
+        String query = prefix == null ? "" : prefix.toLowerCase().trim();
+        int edits = Math.max(0, Math.min(MAX_EDITS, maxEdits));
+        List<String> result = new ArrayList<>();
+        if (limit <= 0) {
+            return result;
+        }
+        
+        int[] firstRow = new int[query.length() + 1];
+        for (int i = 0; i < firstRow.length; i++) {
+            firstRow[i] = i;
+        }
+        Set<String> taken = new HashSet<>();
+        for (int tier = 0; tier <= edits && result.size() < limit; tier++) {
+            Map<String, Integer> found = new HashMap<>();  // Display phrase -> popularity
+            visit(root, query, firstRow, query.length(), tier, taken, found);
+            List<Map.Entry<String, Integer>> ranked = new ArrayList<>(found.entrySet());
+            ranked.sort(Map.Entry.<String, Integer>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey()));
+            for (int i = 0; i < ranked.size() && result.size() < limit; i++) {
+                result.add(ranked.get(i).getKey());
+                taken.add(ranked.get(i).getKey());
+            }
+        }
+        return result;
+    }
+    
+    // bestDistance is the closest any prefix on the path from the root came to the query,
+    // which is the distance of every phrase ending at or below this node
+    private void visit(TrieNode node, String query, int[] row, int bestDistance, int tier,
+                       Set<String> taken, Map<String, Integer> found) {
+        if (bestDistance <= tier) {
+            offer(node, taken, found);
+        }
+        int rowMin = row[0];
+        for (int value : row) {
+            rowMin = Math.min(rowMin, value);
+        }
+        if (rowMin > tier) {
+            // No extension can get closer - the subtree either all matches at bestDistance or not at all
+            if (bestDistance <= tier) {
+                for (TrieNode child : node.children.values()) {
+                    collect(child, taken, found);
+                }
+            }
+            return;
+        }
+        int columns = query.length() + 1;
+        for (Map.Entry<Character, TrieNode> child : node.children.entrySet()) {
+            char c = child.getKey();
+            int[] next = new int[columns];
+            next[0] = row[0] + 1;
+            for (int i = 1; i < columns; i++) {
+                int substitution = row[i - 1] + (query.charAt(i - 1) == c ? 0 : 1);
+                next[i] = Math.min(Math.min(next[i - 1] + 1, row[i] + 1), substitution);
+            }
+            visit(child.getValue(), query, next, Math.min(bestDistance, next[columns - 1]), tier, taken, found);
+        }
+    }
+    
+    private void collect(TrieNode node, Set<String> taken, Map<String, Integer> found) {
+        offer(node, taken, found);
+        for (TrieNode child : node.children.values()) {
+            collect(child, taken, found);
+        }
+    }
+    
+    // Earlier tiers already placed their phrases, so anything taken is closer than this tier
+    private void offer(TrieNode node, Set<String> taken, Map<String, Integer> found) {
+        String display = node.display;
+        int popularity = node.refCount;
+        if (popularity > 0 && display != null && !taken.contains(display)) {
+            found.merge(display, popularity, Math::max);
+        }
+    }
+    
+    // The full phrase plus each later word start, so "gal" finds "Samsung Galaxy S21"
+    private List<String> entryKeys(String phrase) {
+        String normalized = phrase.toLowerCase().trim();
+        List<String> keys = new ArrayList<>();
+        keys.add(normalized);
+        for (int i = 1; i < normalized.length() && keys.size() < MAX_WORD_ENTRIES; i++) {
+            if (normalized.charAt(i - 1) == ' ' && normalized.charAt(i) != ' ') {
+                keys.add(normalized.substring(i));
+            }
+        }
+        return keys;
+    }
+    
+    private static class TrieNode {
+        private final Map<Character, TrieNode> children = new ConcurrentHashMap<>();
+        private volatile String display;  // Original-case phrase ending here
+        private volatile int refCount;  // Products currently contributing this phrase
+    }
+}
+
+// Facet sidebar counts for a search result
+public class FacetCounts {
+    private Map<String, Integer> categoryCounts;  // Keyed by full category path
+    private Map<String, Integer> priceBucketCounts;
+    private Map<String, Integer> sizeCounts;
+    private Map<String, Integer> colorCounts;
+    
+    public FacetCounts() {
+        this.categoryCounts = new TreeMap<>();
+        this.priceBucketCounts = new LinkedHashMap<>();
+        this.sizeCounts = new TreeMap<>();
+        this.colorCounts = new TreeMap<>();
+    }
+    
+    static String priceBucketLabel(int bucket) {
+        return String.format("%.0f - %.0f", ProductPriceIndex.bucketLowerBound(bucket),
+            ProductPriceIndex.bucketLowerBound(bucket + 1));
+    }
+}
+
+// Product class representing items for sale
+public class Product {
+    private String productId;
+    private String name;
+    private String description;
+    private long priceMinor;  // Minor currency units (paise/cents)
+    private List<String> availableSizes;
+    private List<String> availableColors;
+    private ProductCategory category;
+    private volatile StripedStockCounter stockQuantity;  // Sellable units; one stripe unless a hot SKU
+    private final AtomicLong onHandQuantity;  // Sellable plus units held by pending reservations
+    private String sellerId;
+    private List<String> images;
+    private double rating;
+    private int reviewCount;
+    private volatile ProductStatus status;  // AVAILABLE, OUT_OF_STOCK, DISCONTINUED
+    
+    public Product(String name, double price, ProductCategory category, String sellerId) {
+        this.productId = generateProductId();
+        this.name = name;
+        this.priceMinor = Money.ofMajor(price);
+        this.category = category;
+        this.sellerId = sellerId;
+        this.availableSizes = new ArrayList<>();
+        this.availableColors = new ArrayList<>();
+        this.images = new ArrayList<>();
+        this.stockQuantity = new StripedStockCounter(1, 0);
+        this.onHandQuantity = new AtomicLong();
+        this.rating = 0.0;
+        this.reviewCount = 0;
+        this.status = ProductStatus.AVAILABLE;
+    }
+    
+    public boolean isAvailable() {
+        return status == ProductStatus.AVAILABLE && stockQuantity.hasStock();
+    }
+    
+    // Sets the on-hand count; units held by pending reservations stay held, so only the
+    // difference from the previous on-hand count is applied to the sellable stock.
+    // Use ProductCatalog.updateProductStock for listed products so the status bitmaps follow
+    public void updateStock(int quantity) {
+        long delta = quantity - onHandQuantity.getAndSet(quantity);
+        if (delta > 0) {
+            stockQuantity.add(delta);
+        } else if (delta < 0) {
+            stockQuantity.remove(-delta);
+        }
+        if (quantity <= 0) {
+            status = ProductStatus.OUT_OF_STOCK;
+        } else {
+            status = ProductStatus.AVAILABLE;
+        }
+    }
+    
+    // Lock-free reservation - never takes stock below zero, so hot SKUs cannot oversell
+    public boolean tryReserveStock(int quantity) {
+        if (quantity <= 0 || status != ProductStatus.AVAILABLE) {
+            return false;
+        }
+        return stockQuantity.tryAcquire(quantity);
+    }
+    
+    // Pending reservation given up - the units never left on-hand stock
+    public void releaseStock(int quantity) {
+        stockQuantity.release(quantity);
+    }
+    
+    // Reserved units sold - they leave on-hand stock for good
+    public void commitStock(int quantity) {
+        onHandQuantity.addAndGet(-quantity);
+    }
+    
+    // Sold units coming back, e.g. an order cancelled after payment
+    public void restoreCommittedStock(int quantity) {
+        onHandQuantity.addAndGet(quantity);
+        stockQuantity.release(quantity);
+    }
+    
+    // Sellable units, excluding anything held by a reservation
+    public int getStockQuantity() {
+        return (int) stockQuantity.sum();
+    }
+    
+    public long getOnHandQuantity() {
+        return onHandQuantity.get();
+    }
+    
+    // Spreads stock over one stripe per core; meant for setup of flash-sale SKUs, not mid-sale
+    public void markHotSku() {
+        StripedStockCounter single = stockQuantity;
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()));
+        if (single.getStripeCount() < stripes) {
+            stockQuantity = new StripedStockCounter(stripes, single.drain());
+        }
+    }
+    
+    // Use ProductCatalog.updateProductPrice for listed products so the price index is re-keyed
+    public void updatePrice(double newPrice) {
+        this.priceMinor = Money.ofMajor(newPrice);
+    }
+    
+    public long getPriceMinor() {
+        return priceMinor;
+    }
+    
+    public double getPrice() {
+        return Money.toMajor(priceMinor);
+    }
+    
+    public void addReview(double rating) {
+        // Update average rating
+        this.rating = ((this.rating * reviewCount) + rating) / (reviewCount + 1);
+        this.reviewCount++;
+    }
+}
+
+// Striped stock counter - LongAdder-style per-core sub-budgets for hot SKUs
+// Each thread draws from its home stripe; only when that runs dry does it sweep the other
+// stripes, pulling back a share of their budget, so the exact "sold out" answer is only
+// computed near zero. Stock moved between stripes is tracked so that answer is never short
+final class StripedStockCounter {
+    private static final int PADDING = 8;  // Longs per 64-byte line - keeps stripes off shared lines
+    
+    private final AtomicLongArray cells;
+    private final int stripes;  // Power of two
+    private final AtomicLong movesInFlight = new AtomicLong();  // Rebalances between their take and put
+    private final AtomicLong movesCompleted = new AtomicLong();
+    private final AtomicLong debt = new AtomicLong();  // Removals that found less stock than asked
+    
+    StripedStockCounter(int stripes, long initial) {
+        this.stripes = Integer.highestOneBit(Math.max(1, stripes));
+        this.cells = new AtomicLongArray(this.stripes * PADDING);
+        if (initial < 0) {
+            debt.set(-initial);
+        } else {
+            distribute(initial);
+        }
+    }
+    
+    // Fails only when the exact total, net of debt, cannot cover the quantity
+    public boolean tryAcquire(int quantity) {
+        if (debt.get() > 0) {
+            settleDebt();
+        }
+        int home = homeStripe();
+        if (tryTake(home, quantity)) {
+            return true;
+        }
+        // Home stripe ran dry - rebalance until the take succeeds or the stock is really short
+        while (true) {
+            if (rebalanceInto(home, quantity) && tryTake(home, quantity)) {
+                return true;
+            }
+            if (exactSum() - debt.get() < quantity) {
+                return false;
+            }
+            Thread.onSpinWait();
+        }
+    }
+    
+    public void release(int quantity) {
+        add(quantity);
+    }
+    
+    // Restock or returned units; repays any outstanding debt first
+    public void add(long quantity) {
+        cells.addAndGet(homeStripe() * PADDING, quantity);
+        if (debt.get() > 0) {
+            settleDebt();
+        }
+    }
+    
+    // Write-off or downward stock correction; units held by reservations become debt
+    // that later releases pay back before anything is sellable again
+    public void remove(long quantity) {
+        long taken = takeUpTo(quantity);
+        if (taken < quantity) {
+            debt.addAndGet(quantity - taken);
+            settleDebt();  // Picks up stock that was between stripes during the sweep
+        }
+    }
+    
+    // Lock-free; stops at the first stripe holding stock
+    public boolean hasStock() {
+        if (debt.get() > 0) {
+            return exactSum() - debt.get() > 0;
+        }
+        for (int i = 0; i < stripes; i++) {
+            if (cells.get(i * PADDING) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    public long sum() {
+        return Math.max(0L, exactSum() - debt.get());
+    }
+    
+    public int getStripeCount() {
+        return stripes;
+    }
+    
+    // Net stock, which is negative while in debt; used when re-striping at SKU setup
+    long drain() {
+        long total = 0;
+        for (int i = 0; i < stripes; i++) {
+            total += cells.getAndSet(i * PADDING, 0);
+        }
+        return total - debt.getAndSet(0);
+    }
+    
+    // Sum with no rebalance caught halfway - retried if a move started or finished meanwhile
+    private long exactSum() {
+        while (true) {
+            long epoch = movesCompleted.get();
+            if (movesInFlight.get() == 0) {
+                long total = 0;
+                for (int i = 0; i < stripes; i++) {
+                    total += cells.get(i * PADDING);
+                }
+                if (movesInFlight.get() == 0 && movesCompleted.get() == epoch) {
+                    return total;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+    
+    private void settleDebt() {
+        long owed = debt.getAndSet(0);
+        if (owed <= 0) {
+            return;
+        }
+        long paid = takeUpTo(owed);
+        if (paid < owed) {
+            debt.addAndGet(owed - paid);
+        }
+    }
+    
+    private long takeUpTo(long quantity) {
+        long taken = 0;
+        int home = homeStripe();
+        for (int offset = 0; offset < stripes && taken < quantity; offset++) {
+            int index = ((home + offset) & (stripes - 1)) * PADDING;
+            while (true) {
+                long available = cells.get(index);
+                if (available <= 0) {
+                    break;
+                }
+                long take = Math.min(available, quantity - taken);
+                if (cells.compareAndSet(index, available, available - take)) {
+                    taken += take;
+                    break;
+                }
+            }
+        }
+        return taken;
+    }
+    
+    private void distribute(long quantity) {
+        long share = quantity / stripes;
+        long remainder = quantity % stripes;
+        for (int i = 0; i < stripes; i++) {
+            cells.addAndGet(i * PADDING, share + (i < remainder ? 1 : 0));
+        }
+    }
+    
+    private boolean tryTake(int stripe, int quantity) {
+        int index = stripe * PADDING;
+        while (true) {
+            long current = cells.get(index);
+            if (current < quantity) {
+                return false;
+            }
+            if (cells.compareAndSet(index, current, current - quantity)) {
+                return true;
+            }
+        }
+    }
+    
+    // Pulls at least the shortfall, or half of each victim's budget, into the home stripe
+    private boolean rebalanceInto(int home, int quantity) {
+        long needed = quantity - cells.get(home * PADDING);
+        for (int offset = 1; offset < stripes && needed > 0; offset++) {
+            int index = ((home + offset) & (stripes - 1)) * PADDING;
+            while (true) {
+                long available = cells.get(index);
+                if (available <= 0) {
+                    break;
+                }
+                long take = Math.min(available, Math.max(needed, available / 2));
+                movesInFlight.incrementAndGet();
+                if (cells.compareAndSet(index, available, available - take)) {
+                    cells.addAndGet(home * PADDING, take);
+                    movesCompleted.incrementAndGet();
+                    movesInFlight.decrementAndGet();
+                    needed -= take;
+                    break;
+                }
+                movesInFlight.decrementAndGet();
+            }
+        }
+        return needed <= 0;
+    }
+    
+    private int homeStripe() {
+        long id = Thread.currentThread().threadId();
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (stripes - 1);
+    }
+}
+
+// Inventory Ledger - Singleton tracking checkout stock reservations
+// Stock is taken from the product at reservation time; a reservation is then either committed
+// by a successful payment or released by payment failure, cancellation or TTL expiry
+public class InventoryLedger {
+    private static volatile InventoryLedger instance;
+    private static final long RESERVATION_TTL_MILLIS = 15 * 60 * 1000L;
+    private static final long EXPIRY_SWEEP_MILLIS = 30 * 1000L;
+    
+    private final Map<String, StockReservation> pendingReservations;
+    private final ScheduledExecutorService reaper;
+    
+    private InventoryLedger() {
+        this.pendingReservations = new ConcurrentHashMap<>();
+        this.reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reservation-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleWithFixedDelay(this::expireReservations,
+            EXPIRY_SWEEP_MILLIS, EXPIRY_SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    
+    public static InventoryLedger getInstance() {
+        if (instance == null) {
+            synchronized (InventoryLedger.class) {
+                if (instance == null) {
+                    instance = new InventoryLedger();
+                }
+            }
+        }
+        return instance;
+    }
+    
+    // All-or-nothing across the cart; returns null when any product lacks stock
+    public StockReservation reserve(List<Item> items) {
+        Map<Product, Integer> quantities = new LinkedHashMap<>();
+        for (Item item : items) {
+            quantities.merge(item.getProduct(), item.getQuantity(), Integer::sum);
+        }
+        if (!acquire(quantities)) {
+            return null;
+        }
+        StockReservation reservation = new StockReservation(quantities,
+            System.currentTimeMillis() + RESERVATION_TTL_MILLIS);
+        pendingReservations.put(reservation.getReservationId(), reservation);
+        return reservation;
+    }
+    
+    // Batch variant - one stock CAS per distinct product for the whole batch where stock allows.
+    // Result is index-aligned with the input; a null entry means that cart could not be served
+    public List<StockReservation> reserveBatch(List<List<Item>> carts) {
+        List<Map<Product, Integer>> demands = new ArrayList<>(carts.size());
+        Map<Product, Integer> totalDemand = new LinkedHashMap<>();
+        for (List<Item> items : carts) {
+            Map<Product, Integer> quantities = new LinkedHashMap<>();
+            for (Item item : items) {
+                quantities.merge(item.getProduct(), item.getQuantity(), Integer::sum);
+            }
+            demands.add(quantities);
+            quantities.forEach((product, quantity) -> totalDemand.merge(product, quantity, Integer::sum));
+        }
+        
+        // Products whose aggregate demand fits are taken in one shot for every cart
+        Set<Product> bulkTaken = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Map.Entry<Product, Integer> entry : totalDemand.entrySet()) {
+            if (entry.getKey().tryReserveStock(entry.getValue())) {
+                bulkTaken.add(entry.getKey());
+            }
+        }
+        
+        long expiresAt = System.currentTimeMillis() + RESERVATION_TTL_MILLIS;
+        List<StockReservation> reservations = new ArrayList<>(carts.size());
+        for (Map<Product, Integer> quantities : demands) {
+            // Contended products fall back to per-cart acquisition, first come first served
+            Map<Product, Integer> contended = new LinkedHashMap<>();
+            for (Map.Entry<Product, Integer> entry : quantities.entrySet()) {
+                if (!bulkTaken.contains(entry.getKey())) {
+                    contended.put(entry.getKey(), entry.getValue());
+                }
+            }
+            if (!contended.isEmpty() && !acquire(contended)) {
+                // Give this cart's share of the bulk-taken stock back
+                for (Map.Entry<Product, Integer> entry : quantities.entrySet()) {
+                    if (bulkTaken.contains(entry.getKey())) {
+                        entry.getKey().releaseStock(entry.getValue());
+                    }
+                }
+                reservations.add(null);
+                continue;
+            }
+            StockReservation reservation = new StockReservation(quantities, expiresAt);
+            pendingReservations.put(reservation.getReservationId(), reservation);
+            reservations.add(reservation);
+        }
+        return reservations;
+    }
+    
+    // Called once payment succeeds; an expired reservation is re-acquired if stock still allows
+    public boolean commit(StockReservation reservation) {
+        pendingReservations.remove(reservation.getReservationId());
+        if (reservation.transition(ReservationState.PENDING, ReservationState.COMMITTED)) {
+            commitStock(reservation.getQuantities());
+            return true;
+        }
+        if (reservation.getState() != ReservationState.RELEASED || !acquire(reservation.getQuantities())) {
+            return false;
+        }
+        if (!reservation.transition(ReservationState.RELEASED, ReservationState.COMMITTED)) {
+            returnStock(reservation.getQuantities());  // Lost a race with another commit
+            return false;
+        }
+        commitStock(reservation.getQuantities());
+        return true;
+    }
+    
+    // Returns stock for a pending or committed reservation; safe to call more than once
+    public void release(StockReservation reservation) {
+        pendingReservations.remove(reservation.getReservationId());
+        if (reservation.transition(ReservationState.PENDING, ReservationState.RELEASED)) {
+            returnStock(reservation.getQuantities());
+        } else if (reservation.transition(ReservationState.COMMITTED, ReservationState.RELEASED)) {
+            for (Map.Entry<Product, Integer> entry : reservation.getQuantities().entrySet()) {
+                entry.getKey().restoreCommittedStock(entry.getValue());
+            }
+        }
+    }
+    
+    public void expireReservations() {
+        long now = System.currentTimeMillis();
+        for (StockReservation reservation : pendingReservations.values()) {
+            if (reservation.getExpiresAt() <= now
+                    && reservation.transition(ReservationState.PENDING, ReservationState.RELEASED)) {
+                pendingReservations.remove(reservation.getReservationId());
+                returnStock(reservation.getQuantities());
+            }
+        }
+    }
+    
+    private boolean acquire(Map<Product, Integer> quantities) {
+        List<Map.Entry<Product, Integer>> acquired = new ArrayList<>();
+        for (Map.Entry<Product, Integer> entry : quantities.entrySet()) {
+            if (!entry.getKey().tryReserveStock(entry.getValue())) {
+                // Roll back the lines already taken so a failed checkout holds nothing
+                for (Map.Entry<Product, Integer> taken : acquired) {
+                    taken.getKey().releaseStock(taken.getValue());
+                }
+                return false;
+            }
+            acquired.add(entry);
         }
-        lastUpdated = new Date();
+        return true;
     }
     
-    public List<Product> searchProducts(String query) {
-        // Simple search implementation - in real world, this would use advanced search algorithms
-        return products.stream()
-            .filter(p -> p.getName().toLowerCase().contains(query.toLowerCase()) ||
-                        p.getDescription().toLowerCase().contains(query.toLowerCase()))
-            .collect(Collectors.toList());
+    private void commitStock(Map<Product, Integer> quantities) {
+        for (Map.Entry<Product, Integer> entry : quantities.entrySet()) {
+            entry.getKey().commitStock(entry.getValue());
+        }
     }
     
-    public List<Product> getProductsByCategory(String categoryName) {
-        return categoryProductMap.getOrDefault(categoryName, new ArrayList<>());
+    private void returnStock(Map<Product, Integer> quantities) {
+        for (Map.Entry<Product, Integer> entry : quantities.entrySet()) {
+            entry.getKey().releaseStock(entry.getValue());
+        }
     }
 }
 
-// Product class representing items for sale
-public class Product {
-    private String productId;
-    private String name;
-    private String description;
-    private double price;
-    private List<String> availableSizes;
-    private List<String> availableColors;
-    private ProductCategory category;
-    private int stockQuantity;
-    private String sellerId;
-    private List<String> images;
-    private double rating;
-    private int reviewCount;
-    private ProductStatus status;  // AVAILABLE, OUT_OF_STOCK, DISCONTINUED
+// Stock held for one checkout until payment commits it or it is released
+public class StockReservation {
+    private String reservationId;
+    private Map<Product, Integer> quantities;
+    private long expiresAt;
+    private AtomicReference<ReservationState> state;
     
-    public Product(String name, double price, ProductCategory category, String sellerId) {
-        this.productId = generateProductId();
-        this.name = name;
-        this.price = price;
-        this.category = category;
-        this.sellerId = sellerId;
-        this.availableSizes = new ArrayList<>();
-        this.availableColors = new ArrayList<>();
-        this.images = new ArrayList<>();
-        this.rating = 0.0;
-        this.reviewCount = 0;
-        this.status = ProductStatus.AVAILABLE;
-    }
-    
-    public boolean isAvailable() {
-        return status == ProductStatus.AVAILABLE && stockQuantity > 0;
+    public StockReservation(Map<Product, Integer> quantities, long expiresAt) {
+        this.reservationId = generateReservationId();
+        this.quantities = quantities;
+        this.expiresAt = expiresAt;
+        this.state = new AtomicReference<>(ReservationState.PENDING);
     }
     
-    public void updateStock(int quantity) {
-        this.stockQuantity = quantity;
-        if (stockQuantity <= 0) {
-            status = ProductStatus.OUT_OF_STOCK;
-        } else {
-            status = ProductStatus.AVAILABLE;
-        }
+    public ReservationState getState() {
+        return state.get();
     }
     
-    public void addReview(double rating) {
-        // Update average rating
-        this.rating = ((this.rating * reviewCount) + rating) / (reviewCount + 1);
-        this.reviewCount++;
+    boolean transition(ReservationState from, ReservationState to) {
+        return state.compareAndSet(from, to);
     }
 }
 
@@ -113,6 +1840,7 @@ public class ProductCategory {
     private String description;
     private ProductCategory parentCategory;  // For hierarchical categories
     private List<ProductCategory> subCategories;
+    private volatile String fullPath;  // Cached, interned full path
     
     public ProductCategory(String name, String description) {
         this.categoryId = generateCategoryId();
@@ -124,13 +1852,27 @@ public class ProductCategory {
     public void addSubCategory(ProductCategory subCategory) {
         subCategories.add(subCategory);
         subCategory.setParentCategory(this);
+        subCategory.invalidatePathCache();
+        // Tree shape changed - subtree intervals must be renumbered
+        ProductCatalog.getInstance().onCategoryTreeChanged();
     }
     
     public String getFullCategoryPath() {
-        if (parentCategory == null) {
-            return name;
+        String path = fullPath;
+        if (path == null) {
+            path = parentCategory == null
+                ? name.intern()
+                : (parentCategory.getFullCategoryPath() + " > " + name).intern();
+            fullPath = path;
+        }
+        return path;
+    }
+    
+    private void invalidatePathCache() {
+        fullPath = null;
+        for (ProductCategory subCategory : subCategories) {
+            subCategory.invalidatePathCache();
         }
-        return parentCategory.getFullCategoryPath() + " > " + name;
     }
 }
 
@@ -138,70 +1880,450 @@ public class ProductCategory {
 public class ShoppingCart {
     private String cartId;
     private User owner;  // Cart cannot exist without a user
-    private List<Item> items;
-    private double totalAmount;
-    private Date lastModified;
+    private Map<String, Item> items;  // itemId -> item, in insertion order
+    private Map<String, Item> itemsByVariant;  // productId + size + color -> item
+    private long totalAmountMinor;  // Maintained as a running delta on every mutation
+    private volatile long lastModifiedMillis;  // Read by the evictor without the owner's cooperation
+    private volatile long lastAccessMillis;  // Stamped by CartStore on every hand-out
     
     public ShoppingCart(User owner) {
-        this.cartId = generateCartId();
+        this(generateCartId(), owner, System.currentTimeMillis());
+    }
+    
+    // Used by CartStore when rehydrating a spilled cart
+    ShoppingCart(String cartId, User owner, long lastModifiedMillis) {
+        this.cartId = cartId;
         this.owner = owner;
-        this.items = new ArrayList<>();
-        this.totalAmount = 0.0;
-        this.lastModified = new Date();
+        this.items = new LinkedHashMap<>();
+        this.itemsByVariant = new HashMap<>();
+        this.totalAmountMinor = 0L;
+        this.lastModifiedMillis = lastModifiedMillis;
+        this.lastAccessMillis = System.currentTimeMillis();
+    }
+    
+    void touch() {
+        lastAccessMillis = System.currentTimeMillis();
+    }
+    
+    long getLastAccessMillis() {
+        return lastAccessMillis;
+    }
+    
+    long getLastModifiedMillis() {
+        return lastModifiedMillis;
+    }
+    
+    public Date getLastModified() {
+        return new Date(lastModifiedMillis);
+    }
+    
+    // Re-adds a spilled line with its original locked price, without touching the modification stamp
+    void restoreItem(Product product, int quantity, String size, String color, long unitPriceMinor) {
+        Item item = new Item(product, quantity, size, color, unitPriceMinor);
+        items.put(item.getItemId(), item);
+        itemsByVariant.put(variantKey(product.getProductId(), size, color), item);
+        totalAmountMinor += item.getSubtotalMinor();
+    }
+    
+    public void addItem(String productId, int quantity, String size, String color) {
+        Product product = ProductCatalog.getInstance().getProductById(productId);
+        if (product == null) {
+            throw new IllegalArgumentException("Unknown product: " + productId);
+        }
+        addItem(product, quantity, size, color);
     }
     
     public void addItem(Product product, int quantity, String size, String color) {
         // Check if item already exists
-        Item existingItem = findItem(product.getProductId(), size, color);
+        Item existingItem = itemsByVariant.get(variantKey(product.getProductId(), size, color));
         
         if (existingItem != null) {
+            long previousSubtotal = existingItem.getSubtotalMinor();
             existingItem.updateQuantity(existingItem.getQuantity() + quantity);
+            totalAmountMinor += existingItem.getSubtotalMinor() - previousSubtotal;
         } else {
             Item newItem = new Item(product, quantity, size, color);
-            items.add(newItem);
+            items.put(newItem.getItemId(), newItem);
+            itemsByVariant.put(variantKey(product.getProductId(), size, color), newItem);
+            totalAmountMinor += newItem.getSubtotalMinor();
         }
         
-        recalculateTotal();
-        lastModified = new Date();
+        lastModifiedMillis = System.currentTimeMillis();
     }
     
     public void removeItem(String itemId) {
-        items.removeIf(item -> item.getItemId().equals(itemId));
-        recalculateTotal();
-        lastModified = new Date();
+        Item item = items.remove(itemId);
+        if (item != null) {
+            itemsByVariant.remove(variantKey(item));
+            totalAmountMinor -= item.getSubtotalMinor();
+        }
+        lastModifiedMillis = System.currentTimeMillis();
     }
     
     public void updateItemQuantity(String itemId, int newQuantity) {
-        Item item = items.stream()
-            .filter(i -> i.getItemId().equals(itemId))
-            .findFirst()
-            .orElse(null);
-            
+        Item item = items.get(itemId);
+        
         if (item != null) {
             if (newQuantity <= 0) {
                 removeItem(itemId);
             } else {
+                long previousSubtotal = item.getSubtotalMinor();
                 item.updateQuantity(newQuantity);
-                recalculateTotal();
-                lastModified = new Date();
+                totalAmountMinor += item.getSubtotalMinor() - previousSubtotal;
+                lastModifiedMillis = System.currentTimeMillis();
             }
         }
     }
     
     public void clear() {
         items.clear();
-        totalAmount = 0.0;
-        lastModified = new Date();
+        itemsByVariant.clear();
+        totalAmountMinor = 0L;
+        lastModifiedMillis = System.currentTimeMillis();
+    }
+    
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+    
+    public double getTotalAmount() {
+        return Money.toMajor(totalAmountMinor);
     }
     
-    private void recalculateTotal() {
-        totalAmount = items.stream()
-            .mapToDouble(Item::getSubtotal)
-            .sum();
+    public long getTotalAmountMinor() {
+        return totalAmountMinor;
     }
     
     public List<Item> getItems() {
-        return new ArrayList<>(items);  // Return a copy to prevent external modification
+        return new ArrayList<>(items.values());  // Return a copy to prevent external modification
+    }
+    
+    // Frozen copy of the lines and their total for checkout; later cart edits do not leak in
+    CartSnapshot snapshot() {
+        List<Item> lines = new ArrayList<>(items.size());
+        Map<String, Integer> sourceQuantities = new HashMap<>();
+        long total = 0L;
+        for (Item item : items.values()) {
+            Item line = new Item(item.getProduct(), item.getQuantity(), item.getSelectedSize(),
+                item.getSelectedColor(), item.getPriceAtTimeOfAdditionMinor());
+            lines.add(line);
+            sourceQuantities.put(item.getItemId(), line.getQuantity());
+            total += line.getSubtotalMinor();
+        }
+        return new CartSnapshot(lines, total, sourceQuantities);
+    }
+    
+    // Takes out only what the snapshot captured; lines added or topped up since stay in the cart
+    void removeSnapshotted(CartSnapshot snapshot) {
+        for (Map.Entry<String, Integer> entry : snapshot.getSourceQuantities().entrySet()) {
+            Item item = items.get(entry.getKey());
+            if (item == null) {
+                continue;
+            }
+            int remaining = item.getQuantity() - entry.getValue();
+            if (remaining > 0) {
+                long previousSubtotal = item.getSubtotalMinor();
+                item.updateQuantity(remaining);
+                totalAmountMinor += item.getSubtotalMinor() - previousSubtotal;
+            } else {
+                items.remove(entry.getKey());
+                itemsByVariant.remove(variantKey(item));
+                totalAmountMinor -= item.getSubtotalMinor();
+            }
+        }
+        lastModifiedMillis = System.currentTimeMillis();
+    }
+    
+    private static String variantKey(Item item) {
+        return variantKey(item.getProduct().getProductId(), item.getSelectedSize(), item.getSelectedColor());
+    }
+    
+    private static String variantKey(String productId, String size, String color) {
+        return productId + '|' + size + '|' + color;
+    }
+}
+
+// Cart Store - Singleton holding live carts in lock-striped shards
+// Carts idle past the TTL are spilled to disk and rehydrated lazily on the owner's next access
+public class CartStore {
+    private static volatile CartStore instance;
+    private static final Logger LOG = Logger.getLogger(CartStore.class.getName());
+    private static final int SHARD_COUNT = 32;
+    private static final long IDLE_TTL_MILLIS = 30 * 60 * 1000L;
+    private static final long EVICTION_INTERVAL_MILLIS = 60 * 1000L;
+    private static final int SPILL_FORMAT_VERSION = 1;
+    
+    private final CartShard[] shards;
+    private final Path spillDirectory;
+    private final ScheduledExecutorService evictor;
+    
+    private CartStore(Path spillDirectory) {
+        this.shards = new CartShard[SHARD_COUNT];
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            shards[i] = new CartShard();
+        }
+        this.spillDirectory = spillDirectory;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cart-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(this::evictIdleCarts,
+            EVICTION_INTERVAL_MILLIS, EVICTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    
+    public static CartStore getInstance() {
+        if (instance == null) {
+            synchronized (CartStore.class) {
+                if (instance == null) {
+                    instance = new CartStore(Paths.get(System.getProperty("java.io.tmpdir"), "cart-spill"));
+                }
+            }
+        }
+        return instance;
+    }
+    
+    public ShoppingCart getCart(User owner) {
+        return getCart("user:" + owner.getAccountId(), owner);
+    }
+    
+    public ShoppingCart getAnonymousCart(String sessionId) {
+        return getCart("anon:" + sessionId, null);
+    }
+    
+    private ShoppingCart getCart(String key, User owner) {
+        CartShard shard = shardFor(key);
+        shard.lock.lock();
+        try {
+            ShoppingCart cart = shard.carts.get(key);
+            if (cart == null) {
+                cart = rehydrate(key, owner);
+                if (cart == null) {
+                    cart = new ShoppingCart(owner);
+                }
+                shard.carts.put(key, cart);
+            }
+            cart.touch();  // A cart just handed out is never idle, so the evictor leaves it alone
+            return cart;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+    
+    // Shards are locked one at a time and only briefly: idle carts are snapshotted under
+    // the lock, written to disk without it, then removed only if untouched in the meantime
+    public void evictIdleCarts() {
+        long cutoff = System.currentTimeMillis() - IDLE_TTL_MILLIS;
+        for (CartShard shard : shards) {
+            // An exception escaping here would cancel the scheduled sweep for good
+            try {
+                evictIdleCarts(shard, cutoff);
+            } catch (RuntimeException e) {
+                LOG.log(Level.WARNING, "Cart eviction failed for one shard; retrying next sweep", e);
+            }
+        }
+    }
+    
+    private void evictIdleCarts(CartShard shard, long cutoff) {
+        List<SpillCandidate> candidates = new ArrayList<>();
+        shard.lock.lock();
+        try {
+            Iterator<Map.Entry<String, ShoppingCart>> it = shard.carts.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, ShoppingCart> entry = it.next();
+                ShoppingCart cart = entry.getValue();
+                if (!isIdle(cart, cutoff)) {
+                    continue;
+                }
+                if (cart.isEmpty()) {
+                    it.remove();  // Empty carts are simply dropped
+                    continue;
+                }
+                // The owner may still hold the cart and edit it while its lines are copied
+                try {
+                    candidates.add(new SpillCandidate(entry.getKey(), cart));
+                } catch (RuntimeException e) {
+                    LOG.log(Level.FINE, "Cart " + entry.getKey() + " changed while being snapshotted; skipping", e);
+                }
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+        
+        List<SpillCandidate> spilled = new ArrayList<>();
+        for (SpillCandidate candidate : candidates) {
+            if (spill(candidate)) {  // A failed spill keeps the cart in memory
+                spilled.add(candidate);
+            }
+        }
+        
+        List<SpillCandidate> stale = new ArrayList<>();
+        shard.lock.lock();
+        try {
+            for (SpillCandidate candidate : spilled) {
+                if (shard.carts.get(candidate.key) == candidate.cart && candidate.isUnchanged()) {
+                    shard.carts.remove(candidate.key);
+                } else {
+                    stale.add(candidate);  // Fetched or edited while spilling - keep the live cart
+                }
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+        // The live cart stays in memory, so nothing rehydrates these before they are deleted
+        for (SpillCandidate candidate : stale) {
+            try {
+                Files.deleteIfExists(spillFile(candidate.key));
+            } catch (IOException ignored) {
+                // Overwritten by the next spill; never read while the cart is resident
+            }
+        }
+    }
+    
+    private static boolean isIdle(ShoppingCart cart, long cutoff) {
+        return cart.getLastAccessMillis() < cutoff && cart.getLastModifiedMillis() < cutoff;
+    }
+    
+    private CartShard shardFor(String key) {
+        return shards[(key.hashCode() & 0x7fffffff) % SHARD_COUNT];
+    }
+    
+    // Compact binary layout: version, cartId, lastModified, then one record per line
+    private boolean spill(SpillCandidate candidate) {
+        Path target = spillFile(candidate.key);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(spillDirectory);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                List<Item> items = candidate.items;
+                out.writeByte(SPILL_FORMAT_VERSION);
+                out.writeUTF(candidate.cart.getCartId());
+                out.writeLong(candidate.modifiedMillis);
+                out.writeInt(items.size());
+                for (Item item : items) {
+                    out.writeUTF(item.getProduct().getProductId());
+                    out.writeInt(item.getQuantity());
+                    writeNullableUTF(out, item.getSelectedSize());
+                    writeNullableUTF(out, item.getSelectedColor());
+                    out.writeLong(item.getPriceAtTimeOfAdditionMinor());
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    private ShoppingCart rehydrate(String key, User owner) {
+        Path source = spillFile(key);
+        if (!Files.exists(source)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(source)))) {
+            if (in.readByte() != SPILL_FORMAT_VERSION) {
+                return null;
+            }
+            ShoppingCart cart = new ShoppingCart(in.readUTF(), owner, in.readLong());
+            int itemCount = in.readInt();
+            ProductCatalog catalog = ProductCatalog.getInstance();
+            for (int i = 0; i < itemCount; i++) {
+                String productId = in.readUTF();
+                int quantity = in.readInt();
+                String size = readNullableUTF(in);
+                String color = readNullableUTF(in);
+                long unitPriceMinor = in.readLong();
+                Product product = catalog.getProductById(productId);
+                if (product != null) {  // Products delisted while the cart was spilled are dropped
+                    cart.restoreItem(product, quantity, size, color, unitPriceMinor);
+                }
+            }
+            return cart;
+        } catch (IOException e) {
+            return null;  // Unreadable spill - start the owner with a fresh cart
+        } finally {
+            try {
+                Files.deleteIfExists(source);
+            } catch (IOException ignored) {
+                // A stale file is overwritten by the next spill for this key
+            }
+        }
+    }
+    
+    private Path spillFile(String key) {
+        String fileName = Base64.getUrlEncoder().withoutPadding()
+            .encodeToString(key.getBytes(StandardCharsets.UTF_8));
+        return spillDirectory.resolve(fileName + ".cart");
+    }
+    
+    private static void writeNullableUTF(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+    
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+    
+    private static class CartShard {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<String, ShoppingCart> carts = new HashMap<>();
+    }
+    
+    // Idle cart captured under the shard lock, with the stamps used to detect later use
+    private static class SpillCandidate {
+        private final String key;
+        private final ShoppingCart cart;
+        private final List<Item> items;
+        private final long accessMillis;
+        private final long modifiedMillis;
+        
+        SpillCandidate(String key, ShoppingCart cart) {
+            this.key = key;
+            this.cart = cart;
+            // Stamps first: an edit racing the copy below then always fails isUnchanged
+            this.accessMillis = cart.getLastAccessMillis();
+            this.modifiedMillis = cart.getLastModifiedMillis();
+            this.items = cart.getItems();
+        }
+        
+        boolean isUnchanged() {
+            return cart.getLastAccessMillis() == accessMillis &&
+                   cart.getLastModifiedMillis() == modifiedMillis;
+        }
+    }
+}
+
+// Cart Snapshot - checkout lines copied from a cart, with the total computed from those same lines
+class CartSnapshot {
+    private final List<Item> items;
+    private final long totalAmountMinor;
+    private final Map<String, Integer> sourceQuantities;  // Cart itemId -> quantity taken
+    
+    CartSnapshot(List<Item> items, long totalAmountMinor, Map<String, Integer> sourceQuantities) {
+        this.items = items;
+        this.totalAmountMinor = totalAmountMinor;
+        this.sourceQuantities = sourceQuantities;
+    }
+    
+    List<Item> getItems() {
+        return items;
+    }
+    
+    long getTotalAmountMinor() {
+        return totalAmountMinor;
+    }
+    
+    Map<String, Integer> getSourceQuantities() {
+        return sourceQuantities;
+    }
+    
+    boolean isEmpty() {
+        return items.isEmpty();
     }
 }
 
@@ -212,7 +2334,7 @@ public class Item {
     private int quantity;
     private String selectedSize;
     private String selectedColor;
-    private double priceAtTimeOfAddition;  // Price might change, so we store it
+    private long priceAtTimeOfAdditionMinor;  // Price might change, so we store it
     
     public Item(Product product, int quantity, String size, String color) {
         this.itemId = generateItemId();
@@ -220,11 +2342,21 @@ public class Item {
         this.quantity = quantity;
         this.selectedSize = size;
         this.selectedColor = color;
-        this.priceAtTimeOfAddition = product.getPrice();
+        this.priceAtTimeOfAdditionMinor = product.getPriceMinor();
+    }
+    
+    // Keeps the price locked in when the item was first added
+    Item(Product product, int quantity, String size, String color, long priceAtTimeOfAdditionMinor) {
+        this(product, quantity, size, color);
+        this.priceAtTimeOfAdditionMinor = priceAtTimeOfAdditionMinor;
+    }
+    
+    public long getSubtotalMinor() {
+        return Money.times(priceAtTimeOfAdditionMinor, quantity);
     }
     
     public double getSubtotal() {
-        return priceAtTimeOfAddition * quantity;
+        return Money.toMajor(getSubtotalMinor());
     }
     
     public void updateQuantity(int newQuantity) {
@@ -240,15 +2372,33 @@ public class Order {
     private User user;  // Order cannot exist without a user
     private List<Item> items;
     private Address deliveryAddress;
-    private OrderStatus status;
+    private volatile OrderStatus status;  // Volatile - async fulfilment updates from pool threads
     private Date orderDate;
-    private double totalAmount;
-    private Payment payment;
-    private Invoice invoice;
-    private Status shipmentStatus;
+    private long totalAmountMinor;
+    private volatile Payment payment;
+    private volatile Invoice invoice;
+    private volatile Status shipmentStatus;
+    private StockReservation stockReservation;  // Null for orders placed without reservation
+    
+    public Order(User user, List<Item> items, StockReservation stockReservation) {
+        this(user, items);
+        this.stockReservation = stockReservation;
+    }
+    
+    // Batch placement - id, item snapshot and total are already computed by the caller
+    Order(String orderId, User user, List<Item> itemSnapshot, long totalAmountMinor,
+          StockReservation stockReservation) {
+        this.orderId = orderId;
+        this.user = user;
+        this.items = itemSnapshot;
+        this.orderDate = new Date();
+        this.status = OrderStatus.PENDING_PAYMENT;
+        this.totalAmountMinor = totalAmountMinor;
+        this.stockReservation = stockReservation;
+    }
     
     public Order(User user, List<Item> items) {
-        this.orderId = generateOrderId();
+        this.orderId = OrderIdAllocator.next();
         this.user = user;
         this.items = new ArrayList<>(items);  // Create a copy
         this.orderDate = new Date();
@@ -257,9 +2407,19 @@ public class Order {
     }
     
     private void calculateTotalAmount() {
-        totalAmount = items.stream()
-            .mapToDouble(Item::getSubtotal)
-            .sum();
+        long total = 0L;
+        for (Item item : items) {
+            total += item.getSubtotalMinor();
+        }
+        totalAmountMinor = total;
+    }
+    
+    public long getTotalAmountMinor() {
+        return totalAmountMinor;
+    }
+    
+    public double getTotalAmount() {
+        return Money.toMajor(totalAmountMinor);
     }
     
     public void setDeliveryAddress(Address address) {
@@ -267,14 +2427,57 @@ public class Order {
     }
     
     public void processPayment(Payment payment) {
-        if (payment.processPayment(totalAmount)) {
-            this.payment = payment;
-            this.status = OrderStatus.PAID;
+        if (commitPayment(payment)) {
             generateInvoice();
             createShipmentStatus();
             sendOrderConfirmationNotification();
-        } else {
-            this.status = OrderStatus.PAYMENT_FAILED;
+        }
+    }
+    
+    // Non-blocking variant - the order is PAID as soon as payment succeeds, then invoice,
+    // shipment status and confirmation run in parallel; the future completes when all three finish
+    public CompletableFuture<Order> processPaymentAsync(Payment payment) {
+        Executor executor = OrderFulfillmentExecutor.getInstance().getExecutor();
+        // Gateway wait runs on a virtual thread; pool threads only pick up once it answers
+        return payment.processPaymentAsync(totalAmountMinor)
+            .thenApplyAsync(charged -> settlePayment(payment, charged), executor)
+            .thenCompose(paid -> {
+                if (!paid) {
+                    return CompletableFuture.completedFuture(this);
+                }
+                return CompletableFuture.allOf(
+                    CompletableFuture.runAsync(this::generateInvoice, executor),
+                    CompletableFuture.runAsync(this::createShipmentStatus, executor),
+                    CompletableFuture.runAsync(this::sendOrderConfirmationNotification, executor)
+                ).thenApply(ignored -> this);
+            });
+    }
+    
+    // Charges the payment and settles stock; true once the order is PAID
+    private boolean commitPayment(Payment payment) {
+        return settlePayment(payment, payment.processPayment(totalAmountMinor));
+    }
+    
+    private boolean settlePayment(Payment payment, boolean charged) {
+        if (charged) {
+            if (stockReservation != null && !InventoryLedger.getInstance().commit(stockReservation)) {
+                // Reservation expired and the stock has since sold - undo the charge
+                payment.refund();
+                this.status = OrderStatus.PAYMENT_FAILED;
+                return false;
+            }
+            this.payment = payment;
+            this.status = OrderStatus.PAID;
+            return true;
+        }
+        this.status = OrderStatus.PAYMENT_FAILED;
+        releaseStock();
+        return false;
+    }
+    
+    private void releaseStock() {
+        if (stockReservation != null) {
+            InventoryLedger.getInstance().release(stockReservation);
         }
     }
     
@@ -286,6 +2489,21 @@ public class Order {
         this.shipmentStatus = new Status(this);
     }
     
+    private void sendOrderConfirmationNotification() {
+        NotificationTemplates templates = NotificationTemplates.getInstance();
+        String message = templates.renderBody(NotificationType.ORDER_PLACED, ShipmentStatus.ORDER_PLACED, orderId);
+        
+        Notification notification = new EmailNotification(
+            user.getEmail(),
+            templates.getSubject(NotificationType.ORDER_PLACED),
+            message,
+            NotificationType.ORDER_PLACED
+        );
+        
+        // Transactional - a saturated email queue delays the confirmation, it never drops it
+        NotificationDispatcher.getInstance().dispatchGuaranteed(notification);
+    }
+    
     public boolean canBeCancelled() {
         return status == OrderStatus.PENDING_PAYMENT || 
                status == OrderStatus.PAID ||
@@ -299,7 +2517,118 @@ public class Order {
             if (payment != null) {
                 payment.refund();
             }
+            releaseStock();
+        }
+    }
+}
+
+// Order Fulfillment Executor - Singleton bounded pool for async payment fan-out
+// When the queue is full the submitting thread runs the task itself, which throttles checkout
+public class OrderFulfillmentExecutor {
+    private static volatile OrderFulfillmentExecutor instance;
+    private static final int QUEUE_CAPACITY = 10_000;
+    
+    private final ThreadPoolExecutor executor;
+    
+    private OrderFulfillmentExecutor() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(cores, cores * 2, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+            runnable -> {
+                Thread thread = new Thread(runnable, "order-fulfillment-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+    
+    public static OrderFulfillmentExecutor getInstance() {
+        if (instance == null) {
+            synchronized (OrderFulfillmentExecutor.class) {
+                if (instance == null) {
+                    instance = new OrderFulfillmentExecutor();
+                }
+            }
+        }
+        return instance;
+    }
+    
+    public Executor getExecutor() {
+        return executor;
+    }
+}
+
+// Order Id Allocator - the one source of order ids for single and batch placement
+// Ids carry a per-process prefix, so a restart never reissues an id from a previous run
+final class OrderIdAllocator {
+    private static final String PROCESS_PREFIX = "ORD-" +
+        Long.toString(System.currentTimeMillis(), 36).toUpperCase() + "-" +
+        Integer.toString(ThreadLocalRandom.current().nextInt(36 * 36 * 36), 36).toUpperCase() + "-";
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    
+    private OrderIdAllocator() {}
+    
+    static String next() {
+        return format(reserve(1));
+    }
+    
+    // Returns the first of count consecutive sequence numbers
+    static long reserve(int count) {
+        return SEQUENCE.getAndAdd(count) + 1;
+    }
+    
+    static String format(long sequence) {
+        return PROCESS_PREFIX + sequence;
+    }
+}
+
+// Order Placement Service - places orders for many carts in one pass
+// Used by marketplace bulk checkout and order replay tooling
+public class OrderPlacementService {
+    private InventoryLedger ledger;
+    
+    public OrderPlacementService() {
+        this.ledger = InventoryLedger.getInstance();
+    }
+    
+    // Returns orders index-aligned with the users; null where the cart was empty or short on stock
+    public List<Order> placeOrders(List<User> users) {
+        List<ShoppingCart> carts = new ArrayList<>(users.size());
+        List<CartSnapshot> snapshots = new ArrayList<>(users.size());
+        List<List<Item>> snapshotItems = new ArrayList<>(users.size());
+        for (User user : users) {
+            ShoppingCart cart = user.getCart();
+            CartSnapshot snapshot = cart.snapshot();
+            carts.add(cart);
+            snapshots.add(snapshot);
+            snapshotItems.add(snapshot.getItems());
+        }
+        
+        // Stock for the whole batch is validated and reserved in one ledger call
+        List<StockReservation> reservations = ledger.reserveBatch(snapshotItems);
+        
+        // One sequence bump covers every order id in the batch
+        long firstSequence = OrderIdAllocator.reserve(users.size());
+        
+        List<Order> orders = new ArrayList<>(users.size());
+        for (int i = 0; i < users.size(); i++) {
+            StockReservation reservation = reservations.get(i);
+            CartSnapshot snapshot = snapshots.get(i);
+            if (reservation == null || snapshot.isEmpty()) {
+                if (reservation != null) {
+                    ledger.release(reservation);
+                }
+                orders.add(null);
+                continue;
+            }
+            Order order = new Order(OrderIdAllocator.format(firstSequence + i), users.get(i),
+                snapshot.getItems(), snapshot.getTotalAmountMinor(), reservation);
+            users.get(i).recordOrder(order);
+            carts.get(i).removeSnapshotted(snapshot);
+            orders.add(order);
         }
+        return orders;
     }
 }
 
@@ -308,37 +2637,75 @@ public class Invoice {
     private String invoiceId;
     private Order order;  // Invoice cannot exist without an order
     private Date invoiceDate;
-    private double amount;
-    private double tax;
-    private double shippingCharges;
-    private double discount;
-    private double finalAmount;
+    private long amountMinor;  // All charges in minor currency units
+    private long taxMinor;
+    private long shippingChargesMinor;
+    private long discountMinor;
+    private long finalAmountMinor;
     private String invoiceUrl;  // PDF URL
     
     public Invoice(Order order) {
         this.invoiceId = generateInvoiceId();
         this.order = order;
         this.invoiceDate = new Date();
-        this.amount = order.getTotalAmount();
+        this.amountMinor = order.getTotalAmountMinor();
         calculateCharges();
         generateInvoicePDF();
     }
     
     private void calculateCharges() {
         // Calculate tax, shipping, discounts
-        this.tax = amount * 0.18;  // 18% GST
-        this.shippingCharges = amount > 500 ? 0 : 40;  // Free shipping above 500
-        this.discount = calculateDiscount();
-        this.finalAmount = amount + tax + shippingCharges - discount;
+        this.taxMinor = Money.percentOf(amountMinor, 1800);  // 18% GST
+        this.shippingChargesMinor = amountMinor > Money.ofMajor(500) ? 0L : Money.ofMajor(40);  // Free shipping above 500
+        this.discountMinor = calculateDiscount();
+        this.finalAmountMinor = amountMinor + taxMinor + shippingChargesMinor - discountMinor;
     }
     
-    private double calculateDiscount() {
+    private long calculateDiscount() {
         // Apply any applicable discounts
-        return 0.0;  // Simplified for now
+        return 0L;  // Simplified for now
+    }
+    
+    public double getFinalAmount() {
+        return Money.toMajor(finalAmountMinor);
     }
     
     private void generateInvoicePDF() {
         // Generate PDF and store URL
         this.invoiceUrl = "https://invoices.amazon.com/" + invoiceId + ".pdf";
     }
+}
+
+// Money helpers - amounts are carried as long minor units (2 decimal places)
+// Static methods keep hot paths allocation-free and exact; BigDecimal appears only where doubles come in
+final class Money {
+    private static final long MINOR_PER_MAJOR = 100L;
+    
+    private Money() {
+    }
+    
+    // Rounds half away from zero to the nearest minor unit, like percentOf
+    // Rounds the shortest decimal form of the double, so 1.005 is 101 rather than 1.005 * 100 = 100.49999...
+    public static long ofMajor(double amount) {
+        return BigDecimal.valueOf(amount).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+    
+    public static double toMajor(long amountMinor) {
+        return amountMinor / (double) MINOR_PER_MAJOR;
+    }
+    
+    public static long times(long amountMinor, int quantity) {
+        return Math.multiplyExact(amountMinor, (long) quantity);
+    }
+    
+    // Percentage in basis points (1800 = 18%), rounded half away from zero
+    public static long percentOf(long amountMinor, int basisPoints) {
+        long scaled = Math.multiplyExact(amountMinor, (long) basisPoints);
+        return scaled >= 0 ? (scaled + 5_000) / 10_000 : -((-scaled + 5_000) / 10_000);
+    }
+    
+    public static String format(long amountMinor) {
+        long abs = Math.abs(amountMinor);
+        return String.format("%s%d.%02d", amountMinor < 0 ? "-" : "", abs / MINOR_PER_MAJOR, abs % MINOR_PER_MAJOR);
+    }
 }
\ No newline at end of file